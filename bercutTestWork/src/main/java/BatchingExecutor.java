@@ -0,0 +1,377 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Пул потоков поверх BlockingQueue с пакетной выдачей задач.
+ *  У каждого рабочего потока своя очередь. Поток забирает из нее сразу пачку
+ *  задач за один захват монитора (takeBatch) и выполняет их подряд, поэтому
+ *  стоимость синхронизации делится на всю пачку.
+ *  Задачи без ключа раскладываются по очередям по кругу. Задачи с ключом
+ *  всегда попадают в очередь одного и того же потока и выполняются в порядке
+ *  отправки. Если включено воровство, поток с пустой очередью забирает
+ *  половину задач без ключа у самого загруженного соседа; задачи с ключом
+ *  не воруются, чтобы не нарушать их порядок. Когда задача попадает к занятому
+ *  потоку, отправитель будит один простаивающий, чтобы тот ее украл.
+ *  Простаивающие потоки будятся пустой задачей-маркером в их очереди, а не
+ *  прерыванием, поэтому прерывание получают только задачи при shutdownNow.
+ *  Задачи можно отправлять из самих задач: поток пула никогда не ждет места
+ *  в собственной очереди. Если она заполнена, ее содержимое вместе с новой
+ *  задачей переносится в неограниченный резерв потока, который выполняется
+ *  раньше очереди, так что порядок задач с ключом сохраняется.
+ */
+public class BatchingExecutor extends AbstractExecutorService {
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    /** Маркер, которым будят простаивающий поток. Не выполняется и не воруется.
+     */
+    private static final Runnable WAKE = () -> { };
+
+    private final Worker[] workers;
+    private final int batchSize;
+    private final boolean stealing;
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch terminated;
+    private volatile int state = RUNNING;
+
+    /** Создает пул из threads потоков, у каждого очередь емкостью queueCapacity.
+     *  batchSize ограничивает количество задач, забираемых за один раз.
+     */
+    public BatchingExecutor(int threads, int queueCapacity, int batchSize, boolean stealing) {
+        if(threads <= 0 || queueCapacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.batchSize = batchSize;
+        this.stealing = stealing;
+        this.terminated = new CountDownLatch(threads);
+        this.workers = new Worker[threads];
+        for(int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, queueCapacity);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /** Отправляет задачу в очередь очередного потока.
+     *  Если очередь этого потока заполнена, пробует следующие, а если
+     *  заполнены все, ждет места в первой. Поток пула в этом случае не ждет,
+     *  а оставляет задачу себе.
+     */
+    public void execute(Runnable task) {
+        if(task == null) {
+            throw new NullPointerException();
+        }
+        int start = Math.floorMod(next.getAndIncrement(), workers.length);
+        for(int i = 0; i < workers.length; i++) {
+            Worker worker = workers[(start + i) % workers.length];
+            if(state != RUNNING) {
+                throw new RejectedExecutionException();
+            }
+            if(worker.inbox.offer(task)) {
+                recheck(worker, task);
+                wakeThief(worker);
+                return;
+            }
+        }
+        Worker target = currentWorker();
+        if(target == null) {
+            target = workers[start];
+        }
+        submitTo(target, task);
+        wakeThief(target);
+    }
+
+    /** Отправляет задачу, привязанную к ключу. Все задачи с равными ключами
+     *  выполняются одним потоком в порядке отправки. Если очередь этого потока
+     *  заполнена, посторонний поток ждет места, поток пула, которому принадлежит
+     *  очередь, кладет задачу в свой резерв, а другой поток пула получает
+     *  RejectedExecutionException, потому что ожидание могло бы замкнуться
+     *  на нем самом.
+     */
+    public void execute(Object key, Runnable task) {
+        if(key == null || task == null) {
+            throw new NullPointerException();
+        }
+        int hash = key.hashCode();
+        submitTo(workers[Math.floorMod(hash ^ (hash >>> 16), workers.length)], new KeyedTask(task));
+    }
+
+    public void shutdown() {
+        if(state == RUNNING) {
+            state = SHUTDOWN;
+        }
+        for (Worker worker : workers) {
+            worker.inbox.offer(WAKE);
+        }
+    }
+
+    /** Останавливает пул, прерывает выполняющиеся задачи и возвращает
+     *  невыполненные. Уже забранные потоками пачки дорабатываются
+     *  с выставленным флагом прерывания.
+     */
+    public List<Runnable> shutdownNow() {
+        state = STOP;
+        List<Runnable> pending = new ArrayList<Runnable>();
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+            synchronized (worker.backlog) {
+                pending.addAll(worker.backlog);
+                worker.backlog.clear();
+            }
+            worker.inbox.drainTo(pending);
+        }
+        pending.removeIf(task -> task == WAKE);
+        for(int i = 0; i < pending.size(); i++) {
+            if(pending.get(i) instanceof KeyedTask) {
+                pending.set(i, ((KeyedTask) pending.get(i)).task);
+            }
+        }
+        return pending;
+    }
+
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /** Возвращает количество задач, выполненных потоками пула
+     */
+    public long getCompletedTaskCount() {
+        long count = 0;
+        for (Worker worker : workers) {
+            count += worker.completed;
+        }
+        return count;
+    }
+
+    /** Возвращает количество задач, украденных потоками у соседей
+     */
+    public long getStolenTaskCount() {
+        long count = 0;
+        for (Worker worker : workers) {
+            count += worker.stolen;
+        }
+        return count;
+    }
+
+    private void submitTo(Worker worker, Runnable task) {
+        if(state != RUNNING) {
+            throw new RejectedExecutionException();
+        }
+        if(!worker.inbox.offer(task)) {
+            if(worker.thread == Thread.currentThread()) {
+                worker.defer(task);
+                return;
+            }
+            if(currentWorker() != null) {
+                throw new RejectedExecutionException("queue of " + worker.thread.getName() + " is full");
+            }
+            put(worker, task);
+        }
+        recheck(worker, task);
+    }
+
+    private void put(Worker worker, Runnable task) {
+        try {
+            worker.inbox.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /** Возвращает рабочий поток пула, из которого вызван метод, или null
+     */
+    private Worker currentWorker() {
+        Thread current = Thread.currentThread();
+        for (Worker worker : workers) {
+            if(worker.thread == current) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    /** Если пул остановили, пока задача ставилась в очередь, и ее еще никто
+     *  не забрал, отзывает задачу
+     */
+    private void recheck(Worker worker, Runnable task) {
+        if(state != RUNNING && worker.inbox.remove(task)) {
+            throw new RejectedExecutionException();
+        }
+    }
+
+    /** Если задача досталась занятому потоку, будит один простаивающий,
+     *  чтобы он ее украл
+     */
+    private void wakeThief(Worker target) {
+        if(!stealing || target.idle) {
+            return;
+        }
+        for (Worker worker : workers) {
+            if(worker != target && worker.idle) {
+                if(worker.woken.compareAndSet(false, true)) {
+                    worker.inbox.offer(WAKE);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Забирает у самого загруженного соседа половину его задач без ключа
+     */
+    private int steal(Worker thief, List<Runnable> batch) {
+        Worker victim = null;
+        int victimSize = 0;
+        for (Worker worker : workers) {
+            int size = worker.inbox.size();
+            if(worker != thief && size > victimSize) {
+                victim = worker;
+                victimSize = size;
+            }
+        }
+        if(victim == null) {
+            return 0;
+        }
+        return victim.inbox.drainTo(batch, Math.min(batchSize, (victimSize + 1) / 2),
+                task -> task != WAKE && !(task instanceof KeyedTask));
+    }
+
+    private static class KeyedTask implements Runnable {
+        private final Runnable task;
+
+        KeyedTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<Runnable> inbox;
+        private final Thread thread;
+        private final List<Runnable> batch;
+        private final LinkedList<Runnable> backlog = new LinkedList<Runnable>();
+        private volatile boolean idle;
+        private final AtomicBoolean woken = new AtomicBoolean();
+        private volatile long completed;
+        private volatile long stolen;
+
+        Worker(int index, int queueCapacity) {
+            this.inbox = new BlockingQueue<Runnable>(queueCapacity);
+            this.batch = new ArrayList<Runnable>(batchSize);
+            this.thread = new Thread(this, "batching-executor-" + index);
+        }
+
+        public void run() {
+            try {
+                while (nextBatch()) {
+                    int count = 0;
+                    for(int i = 0; i < batch.size(); i++) {
+                        Runnable task = batch.get(i);
+                        if(task == WAKE) {
+                            continue;
+                        }
+                        if(state != STOP) {
+                            Thread.interrupted();
+                        }
+                        runTask(task);
+                        count++;
+                    }
+                    completed += count;
+                    batch.clear();
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        /** Набирает следующую пачку задач: сначала из своей очереди, затем
+         *  воровством у соседей, затем ждет. Возвращает false, когда пора
+         *  завершаться.
+         */
+        private boolean nextBatch() {
+            while (state != STOP) {
+                if(takeBacklog() || inbox.drainTo(batch, batchSize) > 0 || steal()) {
+                    return true;
+                }
+                idle = true;
+                try {
+                    // отправитель мог положить задачу соседу до того, как увидел простой
+                    if(steal()) {
+                        return true;
+                    }
+                    if(state != RUNNING && inbox.isEmpty()) {
+                        return false;
+                    }
+                    inbox.takeBatch(batch, batchSize);
+                    return true;
+                } catch (InterruptedException e) {
+                    // прерывают только при shutdownNow
+                } finally {
+                    idle = false;
+                    woken.set(false);
+                }
+            }
+            return false;
+        }
+
+        /** Вызывается только самим потоком, когда его очередь заполнена.
+         *  Переносит очередь в резерв и добавляет туда задачу. Все задачи
+         *  в резерве старше задач в очереди, поэтому резерв выполняется первым.
+         */
+        private void defer(Runnable task) {
+            synchronized (backlog) {
+                if(state == STOP) {
+                    throw new RejectedExecutionException();
+                }
+                inbox.drainTo(backlog);
+                backlog.add(task);
+            }
+        }
+
+        private boolean takeBacklog() {
+            synchronized (backlog) {
+                while (batch.size() < batchSize && !backlog.isEmpty()) {
+                    batch.add(backlog.removeFirst());
+                }
+            }
+            return !batch.isEmpty();
+        }
+
+        private boolean steal() {
+            if(!stealing) {
+                return false;
+            }
+            int count = BatchingExecutor.this.steal(this, batch);
+            stolen += count;
+            return count > 0;
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+}
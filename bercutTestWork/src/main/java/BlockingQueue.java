@@ -1,155 +1,218 @@
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
 
-    private LinkedList<T> list = new LinkedList<T>();
+    private LinkedList<Node<T>> list = new LinkedList<Node<T>>();
     private int limit;
+    private boolean fair;
+    private LinkedList<Waiter<T>> producers = new LinkedList<Waiter<T>>();
+    private LinkedList<Waiter<T>> consumers = new LinkedList<Waiter<T>>();
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private Consumer<? super T> overflowHandler;
+    private long[] overflowCounts = new long[OverflowPolicy.values().length];
+
+    private long sojournTarget;
+    private long sojournInterval;
+    private volatile Consumer<? super T> sojournHandler;
+    private LinkedList<Runnable> callbacks = new LinkedList<Runnable>();
+    private long sojournDropCount;
+    private long firstAboveTime;
+    private long dropNext;
+    private int dropCount;
+    private int lastDropCount;
+    private boolean dropping;
+
+    private long timeToLive;
+    private volatile Consumer<? super T> expiryHandler;
+    private long expiredCount;
+
+    private QueueSelector<?>[] selectors = new QueueSelector<?>[0];
+
+    /** Элемент очереди. enqueuedAt - время попадания в очередь по System.nanoTime,
+     *  expiresAt - момент, после которого элемент считается просроченным,
+     *  если для него задан срок жизни.
+     */
+    private static class Node<T> {
+        private final T item;
+        private final boolean expiring;
+        private final long expiresAt;
+        private long enqueuedAt;
+
+        private Node(T item, long ttl) {
+            this.item = item;
+            this.expiring = ttl > 0;
+            this.expiresAt = expiring ? System.nanoTime() + ttl : 0;
+        }
+
+        private boolean expired() {
+            return expiring && System.nanoTime() - expiresAt >= 0;
+        }
+    }
+
+    /** Поток, ожидающий в справедливом режиме. Для производителя node - элемент,
+     *  который потребитель переложит в очередь, для потребителя item - элемент,
+     *  который ему передаст производитель. done выставляется под монитором
+     *  очереди перед тем, как поток будет разбужен. retry означает, что
+     *  производителя отпустили без добавления и он должен повторить попытку.
+     */
+    private static class Waiter<T> {
+        private final Thread thread;
+        private final Node<T> node;
+        private T item;
+        private boolean retry;
+        private volatile boolean done;
+
+        private Waiter(Thread thread, Node<T> node) {
+            this.thread = thread;
+            this.node = node;
+        }
+    }
 
     /** Добавляет элемент в очередь сразу, если она не заполнена и
-     *  возвращает true. Бросает IllegalStateException, если места нет.
+     *  возвращает true. Бросает IllegalStateException, если места нет
+     *  и политика переполнения отказала в добавлении.
      */
-    public synchronized boolean add(T item) {
-        if(item == null) throw new NullPointerException();
-        if(list.size() == limit) throw new IllegalStateException();
-        return offer(item);
+    public boolean add(T item) {
+        if(!offer(item)) throw new IllegalStateException();
+        return true;
     }
 
     /** Добавляет элемент в очередь сразу, если она не заполнена
-     *   и возвращает true. Возвращает false, если нет места.
+     *   и возвращает true. Если места нет, применяет политику переполнения
+     *   и возвращает false, если она отказала в добавлении.
      */
-    public synchronized boolean offer(T item)  {
-        if(item == null) throw new NullPointerException();
-        if(list.size() == limit) {
-            return false;
-        }
-        else {
-            list.add(item);
-            if(list.size() == limit)
-                notifyAll();
-            return true;
-        }
+    public boolean offer(T item)  {
+        return offerNow(item, -1);
+    }
+
+    /** Добавляет элемент со своим сроком жизни сразу, если очередь не заполнена,
+     *  как offer. По истечении ttl элемент будет пропущен и отброшен при извлечении.
+     */
+    public boolean offerExpiring(T item, long ttl, TimeUnit unit) {
+        if(ttl < 0) throw new IllegalArgumentException();
+        return offerNow(item, unit.toNanos(ttl));
     }
 
     /** Удаляет головной элемент очереди (тот что первым вошел) и
      *  возвращает его. Возвращает NoSuchElementException, если очередь пуста.
      */
-    public synchronized T remove() {
-        if(list.isEmpty()) throw new NoSuchElementException();
-        T head = list.getFirst();
-        list.remove(head);
-        if (list.size() == 0)
-            notifyAll();
+    public T remove() {
+        T head = poll();
+        if(head == null) throw new NoSuchElementException();
         return head;
     }
 
     /** Удаляет головной элемент очереди (тот что первым вошел) и
      *  возвращает его. Возвращает null, если очередь пуста.
      */
-    public synchronized T poll() {
-        if(list.isEmpty()) {
-            return null;
+    public T poll() {
+        T head;
+        List<Runnable> pending;
+        synchronized (this) {
+            head = removeHead();
+            pending = takeCallbacks();
         }
-        T head = list.getFirst();
-        list.remove(head);
-        if (list.size() < limit)
-            notifyAll();
+        runCallbacks(pending);
         return head;
     }
 
     /** Возвращает головной элемент очереди, но не удаляет его.
      *  Возвращает NoSuchElementException, если очередь пуста.
      */
-    public synchronized T element() {
-        if(list.isEmpty()) throw new NoSuchElementException();
-        T head = list.getFirst();
+    public T element() {
+        T head = peek();
+        if(head == null) throw new NoSuchElementException();
         return head;
     }
 
     /** Возвращает головной элемент очереди, но не удаляет его.
-     *  Возвращает null, если очередь пуста.
+     *  Возвращает null, если очередь пуста. Просроченные элементы
+     *  в голове очереди при этом отбрасываются.
      */
-    public synchronized T peek() {
-        if(list.isEmpty()) {
-            return null;
+    public T peek() {
+        T item;
+        List<Runnable> pending;
+        synchronized (this) {
+            if(evictExpiredHead()) {
+                signal();
+            }
+            item = list.isEmpty() ? null : list.getFirst().item;
+            pending = takeCallbacks();
         }
-        T item = list.getFirst();
+        runCallbacks(pending);
         return item;
     }
 
     /** Добавляет элемент в очередь сразу, если она не заполнена.
-     *  Возвращает null, если очередь пуста. Ожидает до освобождения
-     *  очереди, если она заполнена и пытается поместить туда элемент.
+     *  Ожидает до освобождения очереди, если она заполнена и политика
+     *  переполнения BLOCK. Бросает IllegalStateException при политике FAIL.
      */
-    public synchronized void put(T item) throws InterruptedException {
+    public void put(T item) throws InterruptedException {
         if(item == null) throw new NullPointerException();
-        while (list.size() == this.limit) {
-            wait();
-        }
-        if (list.size() == 0) {
-            notifyAll();
-        }
-        list.add(item);
+        if(!enqueue(item, -1, false, 0)) throw new IllegalStateException();
+    }
+
+    /** Добавляет элемент со своим сроком жизни, как put. По истечении ttl
+     *  элемент будет пропущен и отброшен при извлечении.
+     */
+    public void putExpiring(T item, long ttl, TimeUnit unit) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        if(ttl < 0) throw new IllegalArgumentException();
+        if(!enqueue(item, unit.toNanos(ttl), false, 0)) throw new IllegalStateException();
     }
 
     /** Добавляет элемент в очередь сразу, если она не заполнена.
      *  Ожидает до освобождения очереди определенное время и
      *  возвращает false если за это время очередь не освободилась.
+     *  Ожидание выполняется только при политике переполнения BLOCK.
      */
-    public synchronized boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
-        TimeUnit time = TimeUnit.MILLISECONDS;
-        long waitingTime = time.convert(timeout, unit);
-        if(list.size() == limit) {
-            wait(waitingTime);
-        }
-        if(list.size() == limit) {
-            return false;
-        } else {
-            list.add(item);
-            if(list.size() == limit)
-                notifyAll();
-            return true;
-        }
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        return enqueue(item, -1, true, unit.toNanos(timeout));
     }
 
     /** Удаляет головной элемент очереди (тот что первым вошел) и возвращает его.
      *  Ожидает пока такой элемент появится если его нет.
      */
-    public synchronized T take() throws InterruptedException {
-        while (list.size() == 0){
-            wait();
-        }
-        if (list.size() == limit){
-            notifyAll();
-        }
-        T item = list.remove(0);
-        return item;
+    public T take() throws InterruptedException {
+        return dequeue(false, 0);
     }
 
     /** Удаляет головной элемент очереди (тот что первым вошел) и возвращает его.
      *  Ожидает опеределнное время пока такой элемент появится и возвращает null если он не появился.
      */
-    public synchronized T poll(long timeout, TimeUnit unit) throws InterruptedException { //
-        TimeUnit time = TimeUnit.MILLISECONDS;
-        long waitingTime = time.convert(timeout, unit);
-        if(list.size() == 0) {
-            wait(waitingTime);
-        }
-        if (list.size() == 0) {
-            return null;
-        }
-        else {
-            T item = list.remove(0);//TODO check
-            if (list.size() == 0)
-                notifyAll();
-            return item;
-        }
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return dequeue(true, unit.toNanos(timeout));
     }
 
     /** Возвращает текущий лимит очереди
      */
     public synchronized int remainingCapacity() { //
-        return limit - list.size();
+        return Math.max(0, limit - list.size());
+    }
+
+    /** Меняет лимит очереди на ходу. При увеличении сразу пропускает
+     *  заблокированных производителей. При уменьшении ничего не отбрасывает:
+     *  элементы сверх нового лимита остаются в очереди, а новые добавления
+     *  ждут, пока потребители не опустят размер ниже лимита.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if(capacity <= 0) throw new IllegalArgumentException();
+        int old = limit;
+        limit = capacity;
+        if(capacity > old) {
+            signal();
+        }
+    }
+
+    /** Возвращает текущий лимит очереди
+     */
+    public synchronized int getCapacity() {
+        return limit;
     }
 
     /** Удаление объекта из очереди, если он в ней присутствует,
@@ -157,34 +220,68 @@ public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
      */
     public synchronized boolean remove(Object o) {
         if(o == null) throw new NullPointerException();
-        if (list.contains(o)) {
-            return list.remove(o);
-        } else {
-            if (list.size() == 0)
-                notifyAll();
-            return false;
+        for (Iterator<Node<T>> nodes = list.iterator(); nodes.hasNext(); ) {
+            if(o.equals(nodes.next().item)) {
+                nodes.remove();
+                signal();
+                return true;
+            }
         }
+        return false;
     }
 
     /** Добавляет все элементы коллекции в список, возвращает true в случае успеха.
      *  Бросает IllegalStateException если в очереди не хватает места.
      */
-    public synchronized boolean addAll(Collection c) {
+    public synchronized boolean addAll(Collection<? extends T> c) {
         if(c == null) throw new NullPointerException();
         if(c.size() > remainingCapacity()) {
             return false;
         }
-        if(list.size() == limit)
-            notifyAll();
-        return list.addAll(c);
+        for (T item : c) {
+            append(new Node<T>(item, timeToLive));
+        }
+        signal();
+        return !c.isEmpty();
+    }
+
+    /** Добавляет элементы коллекции по порядку, пока есть место, за один
+     *  захват монитора и возвращает количество добавленных. Политика
+     *  переполнения не применяется: не поместившиеся элементы остаются
+     *  у вызывающего. В справедливом режиме ничего не добавляет, пока
+     *  в очереди ждут другие производители.
+     */
+    public int offerAll(Collection<? extends T> c) {
+        if(c == null) throw new NullPointerException();
+        for (T item : c) {
+            if(item == null) throw new NullPointerException();
+        }
+        int count = 0;
+        List<Runnable> pending;
+        synchronized (this) {
+            if(producers.isEmpty()) {
+                for (T item : c) {
+                    if(list.size() >= limit && !evictExpiredHead()) {
+                        break;
+                    }
+                    append(new Node<T>(item, timeToLive));
+                    count++;
+                }
+            }
+            if(count > 0) {
+                signal();
+            }
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        return count;
     }
 
     /** Удаляет все элементы из очереди
      */
     public synchronized void clear() {
         list.clear();
-        if(list.size() == 0)
-            notifyAll();
+        signal();
     }
 
     /** Оставляет в очереди только те элементы, которые содержатся в коллекции
@@ -194,9 +291,9 @@ public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
         if(c.size() > limit) {
             return false;
         } else {
-            if(list.size() == 0)
-                notifyAll();
-            return list.retainAll(c);
+            boolean changed = list.removeIf(node -> !c.contains(node.item));
+            signal();
+            return changed;
         }
     }
 
@@ -207,9 +304,9 @@ public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
         if(c.size() > limit) {
             return false;
         } else {
-            if(list.size() == 0)
-                notifyAll();
-           return list.removeAll(c);
+            boolean changed = list.removeIf(node -> c.contains(node.item));
+            signal();
+            return changed;
         }
     }
 
@@ -220,7 +317,7 @@ public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
         if(c.size() > limit || c.size() == 0) {
             return false;
         } else {
-            return list.containsAll(c);
+            return items().containsAll(c);
         }
     }
 
@@ -240,42 +337,676 @@ public class BlockingQueue<T> implements java.util.concurrent.BlockingQueue<T> {
      */
     public synchronized boolean contains(Object o) {
         if(o == null) throw new NullPointerException();
-        return list.contains(o);
+        for (Node<T> node : list) {
+            if(o.equals(node.item)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Возвращает итератор для элементов очереди
      */
-    public synchronized Iterator iterator() {
-        return list.iterator();
+    public synchronized Iterator<T> iterator() {
+        Iterator<Node<T>> nodes = list.iterator();
+        return new Iterator<T>() {
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            public T next() {
+                return nodes.next().item;
+            }
+
+            public void remove() {
+                nodes.remove();
+            }
+        };
     }
 
     /** Возвращает массив, содержащий все элементы очереди
      */
     public synchronized Object[] toArray() {
-        return list.toArray();
+        return items().toArray();
     }
 
     public synchronized Object[] toArray(Object[] a) {
-        return list.toArray(a);
+        return items().toArray(a);
     }
 
     /** Удаляет все доступные элементы из очереди и добавляет их к данной коллекции, возвращает количество добавленных элементов
      */
-    public synchronized int drainTo(Collection c) {
-        c.addAll(list);
-        list.clear();
-        return c.size();
+    public int drainTo(Collection c) {
+        return drainTo(c, Integer.MAX_VALUE);
     }
 
     /** Удаляет из очереди указанное количество элеменов их к данной коллекции, возвращает количество перемещенных элементов
      */
     public int drainTo(Collection c, int maxElements) {
-        drainTo(c,maxElements);
-        return maxElements;
+        return drainTo(c, maxElements, null);
+    }
+
+    /** Перемещает в коллекцию до maxElements элементов, удовлетворяющих условию,
+     *  оставляя остальные на своих местах. Если условие null, перемещает элементы
+     *  из головы подряд. Все делается за один захват монитора, ожидающие
+     *  производители будятся один раз. Возвращает количество перемещенных элементов.
+     */
+    public int drainTo(Collection<? super T> c, int maxElements, Predicate<? super T> filter) {
+        checkDrainTarget(c);
+        int count;
+        List<Runnable> pending;
+        synchronized (this) {
+            count = drainNodes(c, maxElements, filter);
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        return count;
+    }
+
+    /** Ждет, пока в очереди появится хотя бы один элемент, и перемещает в коллекцию
+     *  до maxElements элементов за один захват монитора. Возвращает количество
+     *  перемещенных элементов. В справедливом режиме первый элемент достается
+     *  в порядке очереди ожидающих потребителей, остальные добираются следом.
+     */
+    public int takeBatch(Collection<? super T> c, int maxElements) throws InterruptedException {
+        checkDrainTarget(c);
+        if(maxElements <= 0) {
+            return 0;
+        }
+        int count;
+        List<Runnable> pending;
+        synchronized (this) {
+            while (!fair && list.isEmpty()) {
+                wait();
+            }
+            count = drainNodes(c, maxElements, null);
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        if(count > 0) {
+            return count;
+        }
+        c.add(take());
+        return 1 + drainTo(c, maxElements - 1);
+    }
+
+    /** Устанавливает политику переполнения без обработчика
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        setOverflowPolicy(policy, null);
+    }
+
+    /** Устанавливает политику переполнения. Обработчик, если задан, получает
+     *  элементы, которые очередь приняла, но не сохранила: отброшенные новые,
+     *  вытесненные старые и отданные вызывающему потоку при CALLER_RUNS.
+     *  Обработчик вызывается в потоке, добавлявшем элемент, вне монитора очереди.
+     *  Для CALLER_RUNS обработчик обязателен.
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy policy, Consumer<? super T> handler) {
+        if(policy == null) throw new NullPointerException();
+        if(policy == OverflowPolicy.CALLER_RUNS && handler == null) throw new IllegalArgumentException();
+        this.overflowPolicy = policy;
+        this.overflowHandler = handler;
+        if(policy != OverflowPolicy.BLOCK) {
+            // производители, ждущие места, должны заново применить новую политику
+            while (!producers.isEmpty()) {
+                Waiter<T> producer = producers.removeFirst();
+                producer.retry = true;
+                release(producer, null);
+            }
+        }
+        notifyAll();
+    }
+
+    /** Возвращает текущую политику переполнения
+     */
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /** Возвращает количество элементов, отброшенных или отклоненных политикой
+     */
+    public synchronized long getOverflowCount(OverflowPolicy policy) {
+        return overflowCounts[policy.ordinal()];
+    }
+
+    /** Включает управление очередью по времени ожидания элементов без обработчика
+     */
+    public void setSojournControl(long target, long interval, TimeUnit unit) {
+        setSojournControl(target, interval, unit, null);
+    }
+
+    /** Включает активное управление очередью по времени ожидания в духе CoDel.
+     *  Каждый элемент помечается временем добавления, а при извлечении
+     *  измеряется, сколько он пролежал в очереди. Если это время держится
+     *  выше target дольше interval, очередь начинает отбрасывать элементы из
+     *  головы, все чаще (interval / sqrt(n)), пока оно не опустится ниже target.
+     *  Так под постоянной перегрузкой ограничивается задержка, а не только память.
+     *  Отброшенные элементы передаются обработчику, если он задан, вне монитора
+     *  очереди. target = 0 выключает режим.
+     */
+    public synchronized void setSojournControl(long target, long interval, TimeUnit unit, Consumer<? super T> handler) {
+        if(target < 0 || (target > 0 && interval <= 0)) throw new IllegalArgumentException();
+        this.sojournTarget = unit.toNanos(target);
+        this.sojournInterval = unit.toNanos(interval);
+        this.sojournHandler = handler;
+        this.firstAboveTime = 0;
+        this.dropping = false;
+    }
+
+    /** Возвращает количество элементов, отброшенных из-за долгого ожидания в очереди
+     */
+    public synchronized long getSojournDropCount() {
+        return sojournDropCount;
+    }
+
+    /** Устанавливает срок жизни для элементов, добавляемых после вызова, если
+     *  он не задан явно через offerExpiring или putExpiring. 0 - без срока.
+     *  Просроченные элементы не возвращаются: они лениво отбрасываются при
+     *  извлечении, в peek и при добавлении в заполненную очередь, а также
+     *  в purgeExpired. Фоновых потоков очередь для этого не заводит, поэтому
+     *  до извлечения просроченные элементы учитываются в size.
+     */
+    public synchronized void setTimeToLive(long ttl, TimeUnit unit) {
+        if(ttl < 0) throw new IllegalArgumentException();
+        this.timeToLive = unit.toNanos(ttl);
+    }
+
+    /** Устанавливает обработчик просроченных элементов. Вызывается вне монитора
+     *  очереди в потоке, который обнаружил просроченный элемент.
+     */
+    public void setExpiryHandler(Consumer<? super T> handler) {
+        this.expiryHandler = handler;
+    }
+
+    /** Возвращает количество отброшенных просроченных элементов
+     */
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /** Удаляет из очереди все просроченные элементы, где бы они ни находились,
+     *  и возвращает их количество
+     */
+    public int purgeExpired() {
+        int count = 0;
+        List<Runnable> pending;
+        synchronized (this) {
+            for (Iterator<Node<T>> nodes = list.iterator(); nodes.hasNext(); ) {
+                Node<T> node = nodes.next();
+                if(node.expired()) {
+                    nodes.remove();
+                    expire(node);
+                    count++;
+                }
+            }
+            if(count > 0) {
+                signal();
+            }
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        return count;
+    }
+
+    /** Подписывает селектор на появление элементов в очереди
+     */
+    synchronized void addSelector(QueueSelector<?> selector) {
+        selectors = Arrays.copyOf(selectors, selectors.length + 1);
+        selectors[selectors.length - 1] = selector;
+    }
+
+    synchronized void removeSelector(QueueSelector<?> selector) {
+        for(int i = 0; i < selectors.length; i++) {
+            if(selectors[i] == selector) {
+                QueueSelector<?>[] copy = new QueueSelector<?>[selectors.length - 1];
+                System.arraycopy(selectors, 0, copy, 0, i);
+                System.arraycopy(selectors, i + 1, copy, i, copy.length - i);
+                selectors = copy;
+                return;
+            }
+        }
+    }
+
+    /** Будит ожидающие потоки после любого изменения очереди. В обычном режиме
+     *  будит всех через notifyAll, и они соревнуются за монитор. В справедливом
+     *  режиме сам передает элементы ожидающим потребителям и перекладывает
+     *  элементы ожидающих производителей в очередь строго в порядке их прихода,
+     *  будя только тех, чье ожидание закончилось.
+     */
+    private void signal() {
+        if(!fair) {
+            notifyAll();
+            return;
+        }
+        while (true) {
+            if(!consumers.isEmpty() && !list.isEmpty()) {
+                release(consumers.removeFirst(), list.removeFirst().item);
+            } else if(!producers.isEmpty() && list.size() < limit) {
+                Waiter<T> producer = producers.removeFirst();
+                append(producer.node);
+                release(producer, null);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void release(Waiter<T> waiter, T item) {
+        waiter.item = item;
+        waiter.done = true;
+        LockSupport.unpark(waiter.thread);
+    }
+
+    /** Общая часть offer, offerExpiring и add: добавляет элемент без ожидания,
+     *  применяя политику переполнения. ttl < 0 означает срок жизни очереди.
+     */
+    private boolean offerNow(T item, long ttl) {
+        if(item == null) throw new NullPointerException();
+        boolean added;
+        OverflowPolicy policy;
+        Consumer<? super T> handler;
+        T discarded = null;
+        List<Runnable> pending;
+        synchronized (this) {
+            Node<T> node = new Node<T>(item, ttl < 0 ? timeToLive : ttl);
+            added = tryAppend(node);
+            policy = overflowPolicy;
+            handler = overflowHandler;
+            if(!added) {
+                discarded = overflow(node, policy);
+            }
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        return added || afterOverflow(discarded, policy, handler);
+    }
+
+    /** Общая часть put и offer с таймаутом. Добавляет элемент сразу, если место
+     *  есть и никто не ждет раньше. Иначе применяет политику переполнения, а при
+     *  политике BLOCK ждет места: в обычном режиме на мониторе, в справедливом -
+     *  в конце очереди производителей. Возвращает false по таймауту или при отказе.
+     *  Если ожидающего производителя отпустила смена политики, повторяет попытку.
+     */
+    private boolean enqueue(T item, long ttl, boolean timed, long nanos) throws InterruptedException {
+        Node<T> node = null;
+        long deadline = System.nanoTime() + nanos;
+        while (true) {
+            boolean added = false;
+            OverflowPolicy policy = null;
+            Consumer<? super T> handler = null;
+            T discarded = null;
+            Waiter<T> waiter = null;
+            List<Runnable> pending;
+            synchronized (this) {
+                if(node == null) {
+                    node = new Node<T>(item, ttl < 0 ? timeToLive : ttl);
+                }
+                while (true) {
+                    if(tryAppend(node)) {
+                        added = true;
+                        break;
+                    }
+                    policy = overflowPolicy;
+                    handler = overflowHandler;
+                    if(policy != OverflowPolicy.BLOCK) {
+                        discarded = overflow(node, policy);
+                        break;
+                    }
+                    if(timed && nanos <= 0) {
+                        break;
+                    }
+                    if(fair) {
+                        waiter = new Waiter<T>(Thread.currentThread(), node);
+                        producers.add(waiter);
+                        break;
+                    }
+                    if(timed) {
+                        TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                        nanos = deadline - System.nanoTime();
+                    } else {
+                        wait();
+                    }
+                }
+                pending = takeCallbacks();
+            }
+            runCallbacks(pending);
+            if(added) {
+                return true;
+            }
+            if(waiter == null) {
+                return afterOverflow(discarded, policy, handler);
+            }
+            if(!await(waiter, producers, timed, nanos)) {
+                return false;
+            }
+            if(!waiter.retry) {
+                return true;
+            }
+            nanos = deadline - System.nanoTime();
+        }
+    }
+
+    /** Добавляет элемент в хвост, если есть место и никто из производителей не
+     *  ждет раньше. Если очередь заполнена, сначала отбрасывает просроченные
+     *  элементы из головы.
+     */
+    private boolean tryAppend(Node<T> node) {
+        if(list.size() >= limit && evictExpiredHead()) {
+            signal();
+        }
+        if(!producers.isEmpty() || list.size() >= limit) {
+            return false;
+        }
+        append(node);
+        signal();
+        return true;
+    }
+
+    private void append(Node<T> node) {
+        node.enqueuedAt = System.nanoTime();
+        list.add(node);
+        for (QueueSelector<?> selector : selectors) {
+            selector.wakeup();
+        }
+    }
+
+    /** Применяет политику переполнения к элементу, который не поместился
+     *  в заполненную очередь. Вызывается под монитором. Возвращает элемент,
+     *  который нужно передать обработчику переполнения, или null.
+     */
+    private T overflow(Node<T> node, OverflowPolicy policy) {
+        switch (policy) {
+            case BLOCK:
+                return null;
+            case FAIL:
+                overflowCounts[policy.ordinal()]++;
+                return null;
+            case DROP_OLDEST:
+                overflowCounts[policy.ordinal()]++;
+                T oldest = list.removeFirst().item;
+                append(node);
+                signal();
+                return oldest;
+            default:
+                overflowCounts[policy.ordinal()]++;
+                return node.item;
+        }
+    }
+
+    /** Передает отброшенный элемент обработчику переполнения вне монитора очереди
+     *  и возвращает true, если политика считает добавление успешным.
+     */
+    private boolean afterOverflow(T discarded, OverflowPolicy policy, Consumer<? super T> handler) {
+        if(discarded != null && handler != null) {
+            handler.accept(discarded);
+        }
+        return policy != OverflowPolicy.BLOCK && policy != OverflowPolicy.FAIL;
+    }
+
+    /** Общая часть take и poll с таймаутом. Забирает головной элемент сразу,
+     *  если он есть и никто не ждет раньше. Иначе ждет элемента: в обычном режиме
+     *  на мониторе, в справедливом - в конце очереди потребителей, пока ему не
+     *  передадут элемент. Возвращает null по таймауту.
+     */
+    private T dequeue(boolean timed, long nanos) throws InterruptedException {
+        T item = null;
+        List<Runnable> pending;
+        Waiter<T> waiter = null;
+        synchronized (this) {
+            long deadline = System.nanoTime() + nanos;
+            while (true) {
+                if(consumers.isEmpty() && !list.isEmpty()) {
+                    item = removeHead();
+                    if(item != null) {
+                        break;
+                    }
+                    continue;
+                }
+                if(timed && nanos <= 0) {
+                    break;
+                }
+                if(fair) {
+                    waiter = new Waiter<T>(Thread.currentThread(), null);
+                    consumers.add(waiter);
+                    break;
+                }
+                if(timed) {
+                    TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                    nanos = deadline - System.nanoTime();
+                } else {
+                    wait();
+                }
+            }
+            pending = takeCallbacks();
+        }
+        runCallbacks(pending);
+        if(waiter != null && await(waiter, consumers, timed, nanos)) {
+            return waiter.item;
+        }
+        return item;
+    }
+
+    private void checkDrainTarget(Collection<? super T> c) {
+        if(c == null) {
+            throw new NullPointerException();
+        }
+        if(c == this) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /** Перемещает элементы в коллекцию под монитором и будит ожидающих один раз
+     */
+    private int drainNodes(Collection<? super T> c, int maxElements, Predicate<? super T> filter) {
+        int count = 0;
+        if(filter == null) {
+            while (count < maxElements && !list.isEmpty()) {
+                T item = pollHead();
+                if(item != null) {
+                    c.add(item);
+                    count++;
+                }
+            }
+        } else {
+            Iterator<Node<T>> iterator = list.iterator();
+            while (count < maxElements && iterator.hasNext()) {
+                Node<T> node = iterator.next();
+                if(node.expired()) {
+                    iterator.remove();
+                    expire(node);
+                } else if(filter.test(node.item)) {
+                    iterator.remove();
+                    c.add(node.item);
+                    count++;
+                }
+            }
+        }
+        signal();
+        return count;
+    }
+
+    private T removeHead() {
+        T item = pollHead();
+        signal();
+        return item;
+    }
+
+    /** Извлекает головной элемент под монитором, пропуская просроченные.
+     *  Если включено управление по времени ожидания, по правилам CoDel
+     *  (RFC 8289) может отбросить один или несколько элементов из головы и
+     *  вернуть следующий за ними, а если отброшено все, вернуть null.
+     */
+    private T pollHead() {
+        if(list.isEmpty()) {
+            return null;
+        }
+        Node<T> node = pollLive();
+        if(sojournTarget > 0) {
+            long now = System.nanoTime();
+            boolean okToDrop = aboveTarget(node, now);
+            if(dropping) {
+                if(!okToDrop) {
+                    dropping = false;
+                }
+                while (dropping && now - dropNext >= 0) {
+                    drop(node);
+                    dropCount++;
+                    node = pollLive();
+                    if(!aboveTarget(node, now)) {
+                        dropping = false;
+                    } else {
+                        dropNext = controlLaw(dropNext, dropCount);
+                    }
+                }
+            } else if(okToDrop) {
+                drop(node);
+                node = pollLive();
+                aboveTarget(node, now);
+                dropping = true;
+                int delta = dropCount - lastDropCount;
+                dropCount = delta > 1 && now - dropNext < 16 * sojournInterval ? delta : 1;
+                dropNext = controlLaw(now, dropCount);
+                lastDropCount = dropCount;
+            }
+        }
+        return node == null ? null : node.item;
+    }
+
+    /** Возвращает true, если время ожидания держится выше цели дольше интервала.
+     *  Запоминает момент, когда оно впервые превысило цель. Пока за элементом
+     *  в очереди ничего нет, очередь считается неперегруженной.
+     */
+    private boolean aboveTarget(Node<T> node, long now) {
+        if(node == null || now - node.enqueuedAt < sojournTarget || list.isEmpty()) {
+            firstAboveTime = 0;
+            return false;
+        }
+        if(firstAboveTime == 0) {
+            firstAboveTime = now + sojournInterval;
+            return false;
+        }
+        return now - firstAboveTime >= 0;
+    }
+
+    private long controlLaw(long time, int count) {
+        return time + (long) (sojournInterval / Math.sqrt(count));
+    }
+
+    private void drop(Node<T> node) {
+        sojournDropCount++;
+        defer(sojournHandler, node.item);
+    }
+
+    /** Снимает с головы просроченные элементы и возвращает первый непросроченный
+     */
+    private Node<T> pollLive() {
+        evictExpiredHead();
+        return list.pollFirst();
+    }
+
+    /** Отбрасывает просроченные элементы из головы очереди.
+     *  Возвращает true, если что-то было отброшено.
+     */
+    private boolean evictExpiredHead() {
+        boolean evicted = false;
+        Node<T> head;
+        while ((head = list.peekFirst()) != null && head.expired()) {
+            list.removeFirst();
+            expire(head);
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    private void expire(Node<T> node) {
+        expiredCount++;
+        defer(expiryHandler, node.item);
+    }
+
+    /** Откладывает вызов обработчика отброшенного элемента до выхода из монитора
+     */
+    private void defer(Consumer<? super T> handler, T item) {
+        if(handler != null) {
+            callbacks.add(() -> handler.accept(item));
+        }
+    }
+
+    private List<Runnable> takeCallbacks() {
+        if(callbacks.isEmpty()) {
+            return null;
+        }
+        List<Runnable> pending = callbacks;
+        callbacks = new LinkedList<Runnable>();
+        return pending;
+    }
+
+    /** Вызывает отложенные обработчики вне монитора очереди
+     */
+    private void runCallbacks(List<Runnable> pending) {
+        if(pending == null) {
+            return;
+        }
+        for (Runnable callback : pending) {
+            callback.run();
+        }
+    }
+
+    private List<T> items() {
+        List<T> items = new ArrayList<T>(list.size());
+        for (Node<T> node : list) {
+            items.add(node.item);
+        }
+        return items;
+    }
+
+    /** Паркует поток вне монитора очереди, пока signal не отметит его ожидание
+     *  завершенным. При таймауте или прерывании убирает поток из очереди
+     *  ожидающих, если его еще не обслужили.
+     */
+    private boolean await(Waiter<T> waiter, LinkedList<Waiter<T>> waiters, boolean timed, long nanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        while (!waiter.done) {
+            if(timed) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            if(Thread.interrupted()) {
+                synchronized (this) {
+                    if(!waiter.done) {
+                        waiters.remove(waiter);
+                        throw new InterruptedException();
+                    }
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if(waiter.done) {
+                return true;
+            }
+            waiters.remove(waiter);
+            return false;
+        }
     }
 
     public BlockingQueue(int limit){
+        this(limit, false);
+    }
+
+    /** Создает очередь. В справедливом режиме (fair = true) заблокированные
+     *  производители и потребители обслуживаются строго в порядке прихода,
+     *  что ограничивает хвост задержек ценой пропускной способности.
+     */
+    public BlockingQueue(int limit, boolean fair){
         if (limit <= 0) throw new IllegalArgumentException();
         this.limit = limit;
+        this.fair = fair;
     }
 }
@@ -0,0 +1,28 @@
+/** Поведение очереди при добавлении элемента в заполненную очередь.
+ *  Устанавливается через BlockingQueue.setOverflowPolicy.
+ */
+public enum OverflowPolicy {
+
+    /** Поведение по умолчанию: add бросает IllegalStateException,
+     *  offer возвращает false, put и offer с таймаутом ждут места.
+     */
+    BLOCK,
+
+    /** Все операции добавления отказывают сразу, без ожидания: add и put бросают
+     *  IllegalStateException, offer возвращает false. Отказы считаются.
+     */
+    FAIL,
+
+    /** Новый элемент отбрасывается, операция добавления считается успешной
+     */
+    DROP_NEWEST,
+
+    /** Из головы очереди вытесняется самый старый элемент, новый добавляется в хвост
+     */
+    DROP_OLDEST,
+
+    /** Новый элемент не добавляется, а передается обработчику переполнения
+     *  в вызывающем потоке, операция добавления считается успешной
+     */
+    CALLER_RUNS
+}
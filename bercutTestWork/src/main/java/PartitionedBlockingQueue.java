@@ -0,0 +1,231 @@
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** Очередь, разбитая на партиции по ключу элемента.
+ *  Ключ вычисляется функцией keyExtractor, все элементы с равными ключами
+ *  попадают в одну партицию и хранятся в ней в порядке добавления.
+ *  Потребитель берет партицию в аренду (lease) и, пока держит ее, один
+ *  извлекает ее элементы; остальные потребители в это время обслуживают
+ *  другие партиции. Так порядок сохраняется для каждого ключа, а разные
+ *  ключи обрабатываются параллельно. Емкость limit общая на все партиции.
+ */
+public class PartitionedBlockingQueue<K, T> {
+
+    private final Function<? super T, ? extends K> keyExtractor;
+    private final int limit;
+    private final Map<K, Partition<K, T>> partitions = new HashMap<K, Partition<K, T>>();
+    private final LinkedList<Partition<K, T>> ready = new LinkedList<Partition<K, T>>();
+    private int size;
+
+    /** Партиция одного ключа. Непустая и не арендованная партиция стоит
+     *  в очереди ready, пустая и не арендованная удаляется из partitions.
+     */
+    private static class Partition<K, T> {
+        private final K key;
+        private final LinkedList<T> items = new LinkedList<T>();
+        private boolean leased;
+
+        private Partition(K key) {
+            this.key = key;
+        }
+    }
+
+    /** Аренда партиции. Пока аренда не закрыта, элементы этого ключа
+     *  не достанутся другим потребителям.
+     */
+    public class Lease implements Closeable {
+        private Partition<K, T> partition;
+
+        private Lease(Partition<K, T> partition) {
+            this.partition = partition;
+        }
+
+        /** Возвращает ключ арендованной партиции
+         */
+        public K key() {
+            synchronized (PartitionedBlockingQueue.this) {
+                return active().key;
+            }
+        }
+
+        /** Извлекает следующий элемент партиции или возвращает null, если она пуста
+         */
+        public T poll() {
+            synchronized (PartitionedBlockingQueue.this) {
+                T item = active().items.pollFirst();
+                if(item != null) {
+                    size--;
+                    PartitionedBlockingQueue.this.notifyAll();
+                }
+                return item;
+            }
+        }
+
+        /** Перемещает в коллекцию до maxElements элементов партиции,
+         *  возвращает количество перемещенных элементов
+         */
+        public int drainTo(Collection<? super T> c, int maxElements) {
+            if(c == null) throw new NullPointerException();
+            synchronized (PartitionedBlockingQueue.this) {
+                LinkedList<T> items = active().items;
+                int count = 0;
+                while (count < maxElements && !items.isEmpty()) {
+                    c.add(items.removeFirst());
+                    count++;
+                }
+                if(count > 0) {
+                    size -= count;
+                    PartitionedBlockingQueue.this.notifyAll();
+                }
+                return count;
+            }
+        }
+
+        /** Возвращает партицию: если в ней остались элементы, она снова
+         *  становится доступной другим потребителям
+         */
+        public void close() {
+            synchronized (PartitionedBlockingQueue.this) {
+                if(partition == null) {
+                    return;
+                }
+                partition.leased = false;
+                if(partition.items.isEmpty()) {
+                    partitions.remove(partition.key);
+                } else {
+                    ready.add(partition);
+                    PartitionedBlockingQueue.this.notifyAll();
+                }
+                partition = null;
+            }
+        }
+
+        private Partition<K, T> active() {
+            if(partition == null) {
+                throw new IllegalStateException("lease is closed");
+            }
+            return partition;
+        }
+    }
+
+    public PartitionedBlockingQueue(int limit, Function<? super T, ? extends K> keyExtractor) {
+        if(limit <= 0) throw new IllegalArgumentException();
+        if(keyExtractor == null) throw new NullPointerException();
+        this.limit = limit;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /** Добавляет элемент в партицию его ключа, если есть место.
+     *  Возвращает false, если очередь заполнена.
+     */
+    public synchronized boolean offer(T item) {
+        if(item == null) throw new NullPointerException();
+        if(size >= limit) {
+            return false;
+        }
+        append(item);
+        return true;
+    }
+
+    /** Добавляет элемент, ожидая освобождения места
+     */
+    public synchronized void put(T item) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        while (size >= limit) {
+            wait();
+        }
+        append(item);
+    }
+
+    /** Добавляет элемент, ожидая освобождения места не дольше указанного времени.
+     *  Возвращает false по таймауту.
+     */
+    public synchronized boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        while (size >= limit) {
+            if(nanos <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            nanos = deadline - System.nanoTime();
+        }
+        append(item);
+        return true;
+    }
+
+    /** Ждет появления непустой свободной партиции и берет ее в аренду.
+     *  Партиции выдаются в порядке, в котором они стали доступными.
+     */
+    public synchronized Lease lease() throws InterruptedException {
+        while (ready.isEmpty()) {
+            wait();
+        }
+        return leaseNext();
+    }
+
+    /** Берет в аренду партицию, ожидая не дольше указанного времени.
+     *  Возвращает null по таймауту.
+     */
+    public synchronized Lease lease(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        while (ready.isEmpty()) {
+            if(nanos <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            nanos = deadline - System.nanoTime();
+        }
+        return leaseNext();
+    }
+
+    /** Возвращает количество элементов во всех партициях
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Возвращает количество элементов, которое еще можно добавить
+     */
+    public synchronized int remainingCapacity() {
+        return limit - size;
+    }
+
+    /** Возвращает количество партиций, в которых есть элементы или которые арендованы
+     */
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+
+    private void append(T item) {
+        K key = keyExtractor.apply(item);
+        Partition<K, T> partition = partitions.get(key);
+        if(partition == null) {
+            partition = new Partition<K, T>(key);
+            partitions.put(key, partition);
+        }
+        partition.items.add(item);
+        size++;
+        if(!partition.leased && partition.items.size() == 1) {
+            ready.add(partition);
+            notifyAll();
+        }
+    }
+
+    private Lease leaseNext() {
+        Partition<K, T> partition = ready.removeFirst();
+        partition.leased = true;
+        return new Lease(partition);
+    }
+}
@@ -0,0 +1,432 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** Конвейер из очередей и функций обработки между ними.
+ *  Все стадии между двумя очередями сливаются в один сегмент и выполняются
+ *  одним потоком (или несколькими, если ни одна из стадий не хранит
+ *  состояние) без промежуточных очередей. Сегмент забирает из своей очереди
+ *  пачку элементов за один захват монитора (takeBatch), прогоняет ее через
+ *  стадии и кладет результат в следующую очередь тоже одним захватом
+ *  (offerAll). Очереди ограничены, поэтому, если последняя очередь
+ *  заполнена, сегменты по цепочке останавливаются и давление доходит
+ *  до производителей, пишущих в первую очередь. Если следующая очередь
+ *  отказывает в добавлении (политика переполнения FAIL), элемент
+ *  считается отвергнутым и передается обработчику ошибок.
+ *
+ *  Pipeline.from(input).map("parse", parser).filter("valid", validator)
+ *          .to(parsed).map("enrich", enricher).to(output).start(64);
+ */
+public class Pipeline<T> {
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private BlockingQueue<?> source;
+    private List<Stage> open = new ArrayList<Stage>();
+    private volatile boolean running;
+    private volatile long startedAt;
+    private volatile BiConsumer<Object, ? super RuntimeException> errorHandler;
+    private final LongAdder rejected = new LongAdder();
+    private final List<Object> abandoned = Collections.synchronizedList(new ArrayList<Object>());
+
+    /** Стадия обработки. Функция возвращает null, если элемент нужно отбросить.
+     */
+    private static class Stage {
+        private final String name;
+        private final Function<Object, Object> function;
+        private final boolean stateful;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        private Stage(String name, Function<Object, Object> function, boolean stateful) {
+            this.name = name;
+            this.function = function;
+            this.stateful = stateful;
+        }
+    }
+
+    private Pipeline(BlockingQueue<T> source) {
+        this.source = source;
+    }
+
+    /** Начинает конвейер с очереди source
+     */
+    public static <T> Pipeline<T> from(BlockingQueue<T> source) {
+        if(source == null) throw new NullPointerException();
+        return new Pipeline<T>(source);
+    }
+
+    /** Добавляет стадию без состояния, преобразующую каждый элемент.
+     *  Если функция вернула null, элемент отбрасывается.
+     */
+    public <R> Pipeline<R> map(String name, Function<? super T, ? extends R> function) {
+        return addStage(name, function, false);
+    }
+
+    /** Добавляет стадию без состояния, пропускающую только элементы,
+     *  удовлетворяющие условию
+     */
+    public Pipeline<T> filter(String name, Predicate<? super T> predicate) {
+        if(predicate == null) throw new NullPointerException();
+        Function<T, T> function = item -> predicate.test(item) ? item : null;
+        return addStage(name, function, false);
+    }
+
+    /** Добавляет стадию с состоянием. Она сливается с соседними стадиями,
+     *  но ее сегмент может выполняться только одним потоком.
+     */
+    public <R> Pipeline<R> mapStateful(String name, Function<? super T, ? extends R> function) {
+        return addStage(name, function, true);
+    }
+
+    /** Завершает текущий сегмент очередью target, сегмент выполняется одним потоком
+     */
+    public Pipeline<T> to(BlockingQueue<T> target) {
+        return to(target, 1);
+    }
+
+    /** Завершает текущий сегмент очередью target, сегмент выполняется
+     *  threads потоками. Порядок элементов при нескольких потоках не сохраняется.
+     */
+    public Pipeline<T> to(BlockingQueue<T> target, int threads) {
+        if(target == null) throw new NullPointerException();
+        if(threads <= 0) throw new IllegalArgumentException();
+        checkNotStarted();
+        if(threads > 1) {
+            for (Stage stage : open) {
+                if(stage.stateful) {
+                    throw new IllegalStateException("stage " + stage.name + " is stateful and needs a single thread");
+                }
+            }
+        }
+        segments.add(new Segment(source, target, open.toArray(new Stage[0]), threads));
+        source = target;
+        open = new ArrayList<Stage>();
+        return this;
+    }
+
+    /** Задает обработчик ошибок стадий. Он получает элемент и исключение,
+     *  брошенное функцией стадии или очередью, отказавшей в добавлении;
+     *  элемент дальше не передается, остальные элементы пачки обрабатываются
+     *  как обычно. Без обработчика исключение передается
+     *  UncaughtExceptionHandler потока сегмента.
+     */
+    public Pipeline<T> onError(BiConsumer<Object, ? super RuntimeException> handler) {
+        this.errorHandler = handler;
+        return this;
+    }
+
+    /** Запускает потоки сегментов. batchSize ограничивает количество
+     *  элементов, забираемых из очереди за один раз.
+     */
+    public synchronized Pipeline<T> start(int batchSize) {
+        if(batchSize <= 0) throw new IllegalArgumentException();
+        checkNotStarted();
+        if(!open.isEmpty()) {
+            throw new IllegalStateException("pipeline must end with to(queue)");
+        }
+        if(segments.isEmpty()) {
+            throw new IllegalStateException("pipeline has no segments");
+        }
+        running = true;
+        startedAt = System.nanoTime();
+        for (Segment segment : segments) {
+            segment.start(batchSize);
+        }
+        return this;
+    }
+
+    /** Останавливает конвейер, начиная с первого сегмента. Следующий сегмент
+     *  останавливается только после того, как завершились все потоки
+     *  предыдущего, поэтому пока сегмент доотдает уже забранную пачку,
+     *  следующий продолжает разбирать его очередь. Элементы не теряются,
+     *  необработанные остаются в очередях. Метод ждет, пока последний сегмент
+     *  не сможет положить свою пачку в последнюю очередь, и, если ее никто
+     *  не читает, не вернется никогда; в этом случае используйте stop с таймаутом.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if(!running) {
+            return;
+        }
+        running = false;
+        for (Segment segment : segments) {
+            segment.stop();
+        }
+    }
+
+    /** Останавливает конвейер, как stop(), но ждет не дольше указанного
+     *  времени. Сегменты, не успевшие к этому сроку отдать забранную пачку,
+     *  бросают ожидание места в следующей очереди. Возвращает элементы,
+     *  которые были забраны из очередей, но так и не положены дальше;
+     *  остальные необработанные элементы остаются в очередях.
+     */
+    public synchronized List<Object> stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if(!running) {
+            return new ArrayList<Object>();
+        }
+        running = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Segment segment : segments) {
+            segment.stop(deadline);
+        }
+        synchronized (abandoned) {
+            List<Object> result = new ArrayList<Object>(abandoned);
+            abandoned.clear();
+            return result;
+        }
+    }
+
+    /** Возвращает количество элементов, поступивших на вход стадии
+     */
+    public long getProcessedCount(String stage) {
+        return stage(stage).processed.sum();
+    }
+
+    /** Возвращает количество элементов, на которых функция стадии бросила исключение
+     */
+    public long getFailedCount(String stage) {
+        return stage(stage).failed.sum();
+    }
+
+    /** Возвращает количество элементов, которые очереди конвейера отказались
+     *  принять (политика переполнения FAIL)
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** Возвращает среднюю пропускную способность стадии в элементах
+     *  в секунду с момента запуска
+     */
+    public double getThroughput(String stage) {
+        long processed = stage(stage).processed.sum();
+        long elapsed = System.nanoTime() - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0 : processed * 1e9 / elapsed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> Pipeline<R> addStage(String name, Function<?, ?> function, boolean stateful) {
+        if(name == null || function == null) throw new NullPointerException();
+        checkNotStarted();
+        if(stages.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate stage " + name);
+        }
+        Stage stage = new Stage(name, (Function<Object, Object>) function, stateful);
+        stages.put(name, stage);
+        open.add(stage);
+        return (Pipeline<R>) this;
+    }
+
+    private Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if(stage == null) {
+            throw new IllegalArgumentException("unknown stage " + name);
+        }
+        return stage;
+    }
+
+    private void checkNotStarted() {
+        if(startedAt != 0) {
+            throw new IllegalStateException("pipeline is already started");
+        }
+    }
+
+    /** Участок конвейера между двумя очередями со слитыми стадиями
+     */
+    private class Segment {
+        private final BlockingQueue<Object> source;
+        private final BlockingQueue<Object> target;
+        private final Stage[] stages;
+        private final int threads;
+        private final List<Worker> workers = new ArrayList<Worker>();
+        private volatile boolean running = true;
+        private volatile boolean abandoned;
+
+        @SuppressWarnings("unchecked")
+        private Segment(BlockingQueue<?> source, BlockingQueue<?> target, Stage[] stages, int threads) {
+            this.source = (BlockingQueue<Object>) source;
+            this.target = (BlockingQueue<Object>) target;
+            this.stages = stages;
+            this.threads = threads;
+        }
+
+        private void start(int batchSize) {
+            for(int i = 0; i < threads; i++) {
+                Worker worker = new Worker(this, batchSize);
+                workers.add(worker);
+                worker.thread.start();
+            }
+        }
+
+        private void stop() throws InterruptedException {
+            running = false;
+            for (Worker worker : workers) {
+                worker.wake();
+            }
+            for (Worker worker : workers) {
+                worker.thread.join();
+            }
+        }
+
+        /** Останавливает сегмент, ожидая его потоки до deadline. Если к сроку
+         *  они не завершились, разрешает им бросить недоотданную пачку
+         *  и дожидается их выхода.
+         */
+        private void stop(long deadline) throws InterruptedException {
+            running = false;
+            for (Worker worker : workers) {
+                worker.wake();
+            }
+            for (Worker worker : workers) {
+                TimeUnit.NANOSECONDS.timedJoin(worker.thread, deadline - System.nanoTime());
+            }
+            abandoned = true;
+            for (Worker worker : workers) {
+                worker.wake();
+            }
+            for (Worker worker : workers) {
+                worker.thread.join();
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Segment segment;
+        private final int batchSize;
+        private final Thread thread;
+        private List<Object> batch;
+        private List<Object> next;
+        private boolean idle;
+
+        private Worker(Segment segment, int batchSize) {
+            this.segment = segment;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<Object>(batchSize);
+            this.next = new ArrayList<Object>(batchSize);
+            this.thread = new Thread(this, "pipeline-" + segments.indexOf(segment));
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    if(!enterIdle(segment.running)) {
+                        return;
+                    }
+                    segment.source.takeBatch(batch, batchSize);
+                } catch (InterruptedException e) {
+                    continue;
+                } finally {
+                    leaveIdle();
+                }
+                process();
+                transfer();
+                batch.clear();
+            }
+        }
+
+        /** Отмечает поток как ожидающий очередь и возвращает proceed,
+         *  прочитанный под монитором потока. Переходы в ожидание и обратно
+         *  и прерывание в wake идут под этим монитором, поэтому прерывание для
+         *  остановки доходит только до takeBatch и put и никогда до функций стадий.
+         */
+        private synchronized boolean enterIdle(boolean proceed) {
+            idle = true;
+            return proceed;
+        }
+
+        private synchronized void leaveIdle() {
+            idle = false;
+            Thread.interrupted();
+        }
+
+        private synchronized void wake() {
+            if(idle) {
+                thread.interrupt();
+            }
+        }
+
+        /** Прогоняет пачку через все стадии сегмента по очереди.
+         *  Счетчики стадий обновляются один раз на пачку. Если функция бросила
+         *  исключение, элемент отдается обработчику ошибок, а остальные
+         *  элементы пачки идут дальше.
+         */
+        private void process() {
+            for (Stage stage : segment.stages) {
+                next.clear();
+                int failed = 0;
+                for(int i = 0; i < batch.size(); i++) {
+                    Object item = batch.get(i);
+                    Object result;
+                    try {
+                        result = stage.function.apply(item);
+                    } catch (RuntimeException e) {
+                        failed++;
+                        fail(item, e);
+                        continue;
+                    }
+                    if(result != null) {
+                        next.add(result);
+                    }
+                }
+                stage.processed.add(batch.size());
+                if(failed > 0) {
+                    stage.failed.add(failed);
+                }
+                List<Object> processed = next;
+                next = batch;
+                batch = processed;
+            }
+        }
+
+        private void fail(Object item, RuntimeException e) {
+            BiConsumer<Object, ? super RuntimeException> handler = errorHandler;
+            try {
+                if(handler != null) {
+                    handler.accept(item, e);
+                    return;
+                }
+            } catch (RuntimeException handlerError) {
+                e = handlerError;
+            }
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+
+        /** Кладет пачку в следующую очередь. Что не поместилось одним захватом,
+         *  докладывается через put, пока очередь не освободится. Постороннее
+         *  прерывание не теряет элементы: пачка доотдается до конца. Элемент,
+         *  который очередь отказалась принять, передается обработчику ошибок.
+         *  Если остановка по таймауту разрешила бросить пачку, остаток
+         *  собирается для возврата из stop.
+         */
+        private void transfer() {
+            int done = 0;
+            while (done < batch.size()) {
+                done += segment.target.offerAll(batch.subList(done, batch.size()));
+                if(done < batch.size()) {
+                    try {
+                        if(!enterIdle(!segment.abandoned)) {
+                            abandoned.addAll(batch.subList(done, batch.size()));
+                            return;
+                        }
+                        segment.target.put(batch.get(done));
+                        done++;
+                    } catch (InterruptedException e) {
+                        // остановка проверяется только между пачками
+                    } catch (IllegalStateException e) {
+                        rejected.increment();
+                        fail(batch.get(done++), e);
+                    } finally {
+                        leaveIdle();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Ожидание сразу на нескольких очередях.
+ *  Зарегистрированные очереди сами будят селектор, когда в них появляется
+ *  элемент, поэтому ожидающий поток спит, а не опрашивает очереди по кругу.
+ *  Если готовы несколько очередей, выбор между ними делается либо по
+ *  приоритету (всегда первая непустая очередь с наибольшим весом), либо
+ *  взвешенным циклическим обходом: за любые sum(weight) выборов среди
+ *  постоянно непустых очередей каждая выбирается ровно weight раз.
+ *  Каждое добавление будит только один ожидающий поток, а не всех:
+ *  поток, забравший элемент, будит следующий, если готовые элементы
+ *  еще остались, а поток, ушедший по таймауту или прерыванию после
+ *  пробуждения, передает пробуждение дальше.
+ */
+public class QueueSelector<T> implements Closeable {
+
+    private final boolean priority;
+    private final List<Entry<T>> entries = new ArrayList<Entry<T>>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    private static class Entry<T> {
+        private final BlockingQueue<? extends T> queue;
+        private final int weight;
+        private int current;
+
+        private Entry(BlockingQueue<? extends T> queue, int weight) {
+            this.queue = queue;
+            this.weight = weight;
+        }
+    }
+
+    /** Ожидающий поток. Флаг signaled выставляет wakeup, сняв его с ожидания.
+     */
+    private static class Waiter {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean signaled;
+    }
+
+    /** Создает селектор со взвешенным циклическим выбором между очередями
+     */
+    public QueueSelector() {
+        this(false);
+    }
+
+    /** Если priority равен true, из готовых очередей всегда выбирается
+     *  очередь с наибольшим весом, при равных весах - зарегистрированная раньше
+     */
+    public QueueSelector(boolean priority) {
+        this.priority = priority;
+    }
+
+    /** Регистрирует очередь с весом 1
+     */
+    public void register(BlockingQueue<? extends T> queue) {
+        register(queue, 1);
+    }
+
+    /** Регистрирует очередь с указанным весом (или приоритетом)
+     */
+    public void register(BlockingQueue<? extends T> queue, int weight) {
+        if(queue == null) throw new NullPointerException();
+        if(weight <= 0) throw new IllegalArgumentException();
+        synchronized (this) {
+            for (Entry<T> entry : entries) {
+                if(entry.queue == queue) {
+                    throw new IllegalStateException("queue is already registered");
+                }
+            }
+            entries.add(new Entry<T>(queue, weight));
+            if(priority) {
+                entries.sort((a, b) -> Integer.compare(b.weight, a.weight));
+            }
+        }
+        queue.addSelector(this);
+        wakeup();
+    }
+
+    /** Снимает очередь с регистрации, возвращает false, если ее не было
+     */
+    public boolean unregister(BlockingQueue<? extends T> queue) {
+        synchronized (this) {
+            if(!entries.removeIf(entry -> entry.queue == queue)) {
+                return false;
+            }
+        }
+        queue.removeSelector(this);
+        return true;
+    }
+
+    /** Снимает с регистрации все очереди
+     */
+    public void close() {
+        List<Entry<T>> registered;
+        synchronized (this) {
+            registered = new ArrayList<Entry<T>>(entries);
+        }
+        for (Entry<T> entry : registered) {
+            unregister(entry.queue);
+        }
+    }
+
+    /** Извлекает элемент из готовой очереди, не дожидаясь. Возвращает null,
+     *  если все очереди пусты.
+     */
+    public T poll() {
+        BlockingQueue<? extends T> queue;
+        while ((queue = choose()) != null) {
+            T item = queue.poll();
+            if(item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /** Ждет, пока хотя бы одна очередь станет непустой, и извлекает из нее элемент
+     */
+    public T take() throws InterruptedException {
+        return next(false, 0);
+    }
+
+    /** Ждет элемент не дольше указанного времени. Возвращает null по таймауту.
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return next(true, unit.toNanos(timeout));
+    }
+
+    /** Ждет, пока хотя бы одна очередь станет непустой, и возвращает ее,
+     *  не извлекая элемент. К моменту обращения к очереди элемент может
+     *  забрать другой потребитель.
+     */
+    public BlockingQueue<? extends T> select() throws InterruptedException {
+        while (true) {
+            long seen = epoch.get();
+            BlockingQueue<? extends T> queue = choose();
+            if(queue != null) {
+                return queue;
+            }
+            awaitChange(seen, false, 0);
+        }
+    }
+
+    /** Вызывается очередью под ее монитором, когда в нее добавлен элемент.
+     *  Не берет никаких мониторов, только будит один ожидающий поток,
+     *  снимая его с ожидания, чтобы следующее добавление разбудило другой.
+     */
+    void wakeup() {
+        epoch.incrementAndGet();
+        Waiter waiter = waiters.poll();
+        if(waiter != null) {
+            waiter.signaled = true;
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    private T next(boolean timed, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        while (true) {
+            long seen = epoch.get();
+            T item = poll();
+            if(item != null) {
+                if(!waiters.isEmpty() && hasReady()) {
+                    wakeup();
+                }
+                return item;
+            }
+            if(!awaitChange(seen, timed, deadline)) {
+                return null;
+            }
+        }
+    }
+
+    /** Выбирает готовую очередь по приоритету или взвешенным циклическим обходом
+     */
+    private synchronized BlockingQueue<? extends T> choose() {
+        if(priority) {
+            for (Entry<T> entry : entries) {
+                if(!entry.queue.isEmpty()) {
+                    return entry.queue;
+                }
+            }
+            return null;
+        }
+        Entry<T> best = null;
+        int total = 0;
+        for (Entry<T> entry : entries) {
+            if(entry.queue.isEmpty()) {
+                continue;
+            }
+            entry.current += entry.weight;
+            total += entry.weight;
+            if(best == null || entry.current > best.current) {
+                best = entry;
+            }
+        }
+        if(best == null) {
+            return null;
+        }
+        best.current -= total;
+        return best.queue;
+    }
+
+    private synchronized boolean hasReady() {
+        for (Entry<T> entry : entries) {
+            if(!entry.queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Паркует поток, пока какая-нибудь очередь не сообщит о новом элементе
+     *  после момента seen. Возвращает false по таймауту.
+     */
+    private boolean awaitChange(long seen, boolean timed, long deadline) throws InterruptedException {
+        Waiter waiter = new Waiter();
+        waiters.add(waiter);
+        boolean changed = false;
+        try {
+            while (epoch.get() == seen && !waiter.signaled) {
+                if(Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if(timed) {
+                    long nanos = deadline - System.nanoTime();
+                    if(nanos <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, nanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            changed = true;
+            return true;
+        } finally {
+            // пробуждение досталось этому потоку, но он уходит по таймауту или прерыванию
+            if(!waiters.remove(waiter) && !changed) {
+                wakeup();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/** Преобразует элементы очереди в массив байт и обратно.
+ *  Используется очередями, которые хранят элементы вне кучи JVM
+ *  (на диске или в разделяемой памяти).
+ */
+public interface Serializer<T> {
+
+    /** Возвращает представление элемента в виде массива байт
+     */
+    byte[] serialize(T item);
+
+    /** Восстанавливает элемент из массива байт, полученного в serialize
+     */
+    T deserialize(byte[] bytes);
+}
@@ -0,0 +1,336 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/** Очередь для обмена записями между процессами на одной машине. Очередь живет
+ *  в отображенном в память файле (по умолчанию в /dev/shm) и устроена как
+ *  кольцевой буфер с атомарными счетчиками прямо в отображенной области,
+ *  поэтому на быстром пути не делается ни одного системного вызова.
+ *  Допускается несколько производителей и потребителей в разных процессах.
+ *
+ *  Раскладка файла: заголовок (магическое число, емкость, размер слота и
+ *  счетчики tail/head в разных кэш-линиях), затем capacity слотов вида
+ *  [long sequence][int length][payload]. Слот свободен для записи с номером pos,
+ *  когда sequence == pos, и содержит запись pos, когда sequence == pos + 1.
+ *
+ *  Межпроцессного аналога wait/notify нет, поэтому блокирующие операции
+ *  сначала крутятся в цикле, а затем засыпают через LockSupport.parkNanos
+ *  с растущей паузой до MAX_PARK_NANOS, пока другая сторона простаивает.
+ *
+ *  Не реализует java.util.concurrent.BlockingQueue целиком: обход и удаление
+ *  произвольных элементов между процессами не поддерживаются.
+ */
+public class SharedMemoryQueue<T> implements Closeable {
+
+    private static final int MAGIC = 0x51554555;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    private static final int HEADER_SIZE = 192;
+    private static final int SLOT_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private Serializer<T> serializer;
+    private int capacity;
+    private int mask;
+    private int maxRecordSize;
+    private int slotSize;
+
+    /** Добавляет элемент в очередь сразу, если она не заполнена и возвращает true.
+     *  Возвращает false, если нет места. Бросает IllegalArgumentException,
+     *  если запись не помещается в слот.
+     */
+    public boolean offer(T item) {
+        return offerBytes(serialize(item));
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его.
+     *  Возвращает null, если очередь пуста. Если длина записи в слоте
+     *  испорчена другим процессом, освобождает слот и бросает
+     *  IllegalStateException, запись при этом теряется.
+     */
+    public T poll() {
+        while (true) {
+            long pos = (long) LONG.getVolatile(buffer, HEAD_OFFSET);
+            int slot = slotOffset(pos);
+            long diff = (long) LONG.getAcquire(buffer, slot) - (pos + 1);
+            if(diff == 0) {
+                if(LONG.compareAndSet(buffer, HEAD_OFFSET, pos, pos + 1)) {
+                    int length = buffer.getInt(slot + Long.BYTES);
+                    if(length < 0 || length > maxRecordSize) {
+                        LONG.setRelease(buffer, slot, pos + capacity);
+                        throw new IllegalStateException("Queue file " + file + " has a record of length " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.position(slot + SLOT_HEADER_SIZE);
+                    payload.get(bytes);
+                    LONG.setRelease(buffer, slot, pos + capacity);
+                    return serializer.deserialize(bytes);
+                }
+            } else if(diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /** Добавляет элемент в очередь. Ожидает освобождения места,
+     *  если очередь заполнена. Элемент сериализуется один раз,
+     *  повторяется только захват слота.
+     */
+    public void put(T item) throws InterruptedException {
+        byte[] bytes = serialize(item);
+        long pause = 0;
+        while (!offerBytes(bytes)) {
+            pause = backOff(pause, Long.MAX_VALUE);
+        }
+    }
+
+    /** Добавляет элемент в очередь. Ожидает освобождения места определенное время
+     *  и возвращает false, если за это время место не освободилось.
+     */
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        byte[] bytes = serialize(item);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long pause = 0;
+        while (!offerBytes(bytes)) {
+            if(deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            pause = backOff(pause, deadline);
+        }
+        return true;
+    }
+
+    private byte[] serialize(T item) {
+        if(item == null) throw new NullPointerException();
+        byte[] bytes = serializer.serialize(item);
+        if(bytes.length > maxRecordSize) throw new IllegalArgumentException();
+        return bytes;
+    }
+
+    /** Занимает слот в хвосте и записывает в него готовую запись.
+     *  Возвращает false, если очередь заполнена.
+     */
+    private boolean offerBytes(byte[] bytes) {
+        while (true) {
+            long pos = (long) LONG.getVolatile(buffer, TAIL_OFFSET);
+            int slot = slotOffset(pos);
+            long diff = (long) LONG.getAcquire(buffer, slot) - pos;
+            if(diff == 0) {
+                if(LONG.compareAndSet(buffer, TAIL_OFFSET, pos, pos + 1)) {
+                    buffer.putInt(slot + Long.BYTES, bytes.length);
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.position(slot + SLOT_HEADER_SIZE);
+                    payload.put(bytes);
+                    LONG.setRelease(buffer, slot, pos + 1);
+                    return true;
+                }
+            } else if(diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его.
+     *  Ожидает, пока такой элемент появится, если его нет.
+     */
+    public T take() throws InterruptedException {
+        long pause = 0;
+        T item;
+        while ((item = poll()) == null) {
+            pause = backOff(pause, Long.MAX_VALUE);
+        }
+        return item;
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его. Ожидает определенное
+     *  время, пока такой элемент появится, и возвращает null, если он не появился.
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long pause = 0;
+        T item;
+        while ((item = poll()) == null) {
+            if(deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+            pause = backOff(pause, deadline);
+        }
+        return item;
+    }
+
+    /** Возвращает примерное количество элементов в очереди
+     */
+    public int size() {
+        long head = (long) LONG.getVolatile(buffer, HEAD_OFFSET);
+        long tail = (long) LONG.getVolatile(buffer, TAIL_OFFSET);
+        return (int) Math.max(0, Math.min(capacity, tail - head));
+    }
+
+    /** Возвращает true, если очередь не содержит элементов
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Возвращает примерное количество свободных слотов
+     */
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /** Возвращает емкость очереди
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Возвращает путь к файлу очереди
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /** Закрывает файл очереди в этом процессе. Сам файл не удаляется,
+     *  отображение освобождается сборщиком мусора.
+     */
+    public void close() {
+        try {
+            if(channel != null)
+                channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int slotOffset(long pos) {
+        return HEADER_SIZE + (int) (pos & mask) * slotSize;
+    }
+
+    /** Одна итерация ожидания. Первые SPIN_TRIES итераций крутятся в цикле,
+     *  затем поток засыпает, удваивая паузу до MAX_PARK_NANOS. Значение pause
+     *  до SPIN_TRIES - счетчик итераций, после - SPIN_TRIES плюс следующая пауза.
+     */
+    private static long backOff(long pause, long deadline) throws InterruptedException {
+        if(Thread.interrupted()) throw new InterruptedException();
+        if(pause < SPIN_TRIES) {
+            Thread.onSpinWait();
+            return pause + 1;
+        }
+        long nanos = Math.max(pause - SPIN_TRIES, MIN_PARK_NANOS);
+        if(deadline != Long.MAX_VALUE) {
+            nanos = Math.min(nanos, deadline - System.nanoTime());
+        }
+        LockSupport.parkNanos(nanos);
+        return SPIN_TRIES + Math.min(nanos * 2, MAX_PARK_NANOS);
+    }
+
+    /** Размечает новый файл или проверяет, что существующий создан с теми же
+     *  параметрами. Выполняется под файловой блокировкой, чтобы процессы,
+     *  открывающие очередь одновременно, не разметили ее дважды. Заголовок
+     *  существующего файла проверяется до отображения, потому что отображение
+     *  большей длины увеличило бы чужой файл.
+     */
+    private void map(long length) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            boolean initialized = checkHeader();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.nativeOrder());
+            if(initialized) {
+                return;
+            }
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putInt(RECORD_SIZE_OFFSET, maxRecordSize);
+            LONG.setVolatile(buffer, TAIL_OFFSET, 0L);
+            LONG.setVolatile(buffer, HEAD_OFFSET, 0L);
+            for (int i = 0; i < capacity; i++) {
+                LONG.setVolatile(buffer, slotOffset(i), (long) i);
+            }
+            INT.setVolatile(buffer, 0, MAGIC);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /** Читает заголовок файла, не отображая его. Возвращает true, если файл
+     *  уже размечен, и бросает IllegalStateException, если с другими параметрами.
+     */
+    private boolean checkHeader() throws IOException {
+        if(channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        if(header.getInt(0) != MAGIC) {
+            return false;
+        }
+        if(header.getInt(CAPACITY_OFFSET) != capacity || header.getInt(RECORD_SIZE_OFFSET) != maxRecordSize)
+            throw new IllegalStateException("Queue file " + file + " has a different layout");
+        return true;
+    }
+
+    /** Возвращает путь к файлу очереди с именем name в /dev/shm,
+     *  а если его нет - во временном каталоге
+     */
+    public static Path defaultPath(String name) {
+        Path shm = Paths.get("/dev/shm");
+        Path directory = Files.isDirectory(shm) ? shm : Paths.get(System.getProperty("java.io.tmpdir"));
+        return directory.resolve(name);
+    }
+
+    public SharedMemoryQueue(String name, int capacity, int maxRecordSize, Serializer<T> serializer) {
+        this(defaultPath(name), capacity, maxRecordSize, serializer);
+    }
+
+    /** Создает очередь в файле file или подключается к уже существующей.
+     *  Емкость должна быть степенью двойки.
+     */
+    public SharedMemoryQueue(Path file, int capacity, int maxRecordSize, Serializer<T> serializer) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || maxRecordSize <= 0) throw new IllegalArgumentException();
+        if (file == null || serializer == null) throw new NullPointerException();
+        this.file = file;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxRecordSize = maxRecordSize;
+        this.slotSize = (SLOT_HEADER_SIZE + maxRecordSize + Long.BYTES - 1) & -Long.BYTES;
+        this.serializer = serializer;
+        long length = HEADER_SIZE + (long) capacity * slotSize;
+        if (length > Integer.MAX_VALUE) throw new IllegalArgumentException();
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            map(length);
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/** Очередь с "горячей" областью в памяти размером limit. Элементы, которые
+ *  не поместились в память, сериализуются и дописываются в последовательные
+ *  файлы-сегменты в каталоге directory, а по мере разбора очереди читаются
+ *  обратно пачками по readAhead элементов в порядке поступления.
+ *  Производители блокируются только когда заполнена память и на диске
+ *  не осталось места (maxDiskBytes).
+ *  Имена сегментов уникальны и создаются атомарно, поэтому несколько очередей
+ *  могут делить один каталог, а файлы, оставшиеся от прошлых запусков,
+ *  не перезаписываются.
+ */
+public class SpillingBlockingQueue<T> implements java.util.concurrent.BlockingQueue<T>, Closeable {
+
+    private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    private LinkedList<T> list = new LinkedList<T>();
+    private LinkedList<Segment> segments = new LinkedList<Segment>();
+    private int limit;
+    private int readAhead;
+    private long segmentSize;
+    private long maxDiskBytes;
+    private Path directory;
+    private Serializer<T> serializer;
+
+    private FileChannel writer;
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private DataInputStream reader;
+    private int spilledSize;
+    private long diskBytes;
+    private long spilledCount;
+    private long reloadedCount;
+
+    /** Файл-сегмент на диске и позиция чтения в нем
+     */
+    private static class Segment {
+        private final File file;
+        private int written;
+        private int read;
+        private long bytes;
+        private long readBytes;
+
+        private Segment(File file) {
+            this.file = file;
+        }
+    }
+
+    /** Добавляет элемент в очередь сразу, если в памяти или на диске есть место
+     *  и возвращает true. Бросает IllegalStateException, если места нет.
+     */
+    public synchronized boolean add(T item) {
+        if(!offer(item)) throw new IllegalStateException();
+        return true;
+    }
+
+    /** Добавляет элемент в очередь сразу, если в памяти или на диске есть место
+     *  и возвращает true. Возвращает false, если места нет.
+     */
+    public synchronized boolean offer(T item) {
+        if(item == null) throw new NullPointerException();
+        return enqueue(item);
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его.
+     *  Бросает NoSuchElementException, если очередь пуста.
+     */
+    public synchronized T remove() {
+        T head = dequeue();
+        if(head == null) throw new NoSuchElementException();
+        return head;
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его.
+     *  Возвращает null, если очередь пуста.
+     */
+    public synchronized T poll() {
+        return dequeue();
+    }
+
+    /** Возвращает головной элемент очереди, но не удаляет его.
+     *  Бросает NoSuchElementException, если очередь пуста.
+     */
+    public synchronized T element() {
+        T head = peek();
+        if(head == null) throw new NoSuchElementException();
+        return head;
+    }
+
+    /** Возвращает головной элемент очереди, но не удаляет его.
+     *  Возвращает null, если очередь пуста.
+     */
+    public synchronized T peek() {
+        if(list.isEmpty() && spilledSize > 0) {
+            reload();
+        }
+        return list.peekFirst();
+    }
+
+    /** Добавляет элемент в очередь. Ожидает, пока освободится место
+     *  в памяти или на диске.
+     */
+    public synchronized void put(T item) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        while (!enqueue(item)) {
+            wait();
+        }
+    }
+
+    /** Добавляет элемент в очередь. Ожидает освобождения места определенное время
+     *  и возвращает false, если за это время место не освободилось.
+     */
+    public synchronized boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if(item == null) throw new NullPointerException();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!enqueue(item)) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его.
+     *  Ожидает, пока такой элемент появится, если его нет.
+     */
+    public synchronized T take() throws InterruptedException {
+        T item;
+        while ((item = dequeue()) == null) {
+            wait();
+        }
+        return item;
+    }
+
+    /** Удаляет головной элемент очереди и возвращает его. Ожидает определенное
+     *  время, пока такой элемент появится, и возвращает null, если он не появился.
+     */
+    public synchronized T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        T item;
+        while ((item = dequeue()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return item;
+    }
+
+    /** Возвращает количество элементов, которые очередь примет без выгрузки на диск
+     */
+    public synchronized int remainingCapacity() {
+        return spilledSize > 0 ? 0 : limit - list.size();
+    }
+
+    /** Удаление объекта из очереди, если он в ней присутствует.
+     *  Если объект выгружен на диск, сегменты переписываются без него.
+     */
+    public synchronized boolean remove(Object o) {
+        if(o == null) throw new NullPointerException();
+        return removeMatching(o::equals, true);
+    }
+
+    /** Добавляет все элементы коллекции в очередь по одному.
+     *  Бросает IllegalStateException, если место закончилось.
+     */
+    public synchronized boolean addAll(Collection<? extends T> c) {
+        if(c == null) throw new NullPointerException();
+        if(c == this) throw new IllegalArgumentException();
+        for (T item : c) {
+            add(item);
+        }
+        return !c.isEmpty();
+    }
+
+    /** Удаляет все элементы из очереди вместе с файлами сегментов
+     */
+    public synchronized void clear() {
+        list.clear();
+        deleteSegments();
+        notifyAll();
+    }
+
+    /** Оставляет в очереди только те элементы, которые содержатся в коллекции.
+     *  Если удаляются выгруженные элементы, сегменты переписываются.
+     */
+    public synchronized boolean retainAll(Collection<?> c) {
+        if(c == null) throw new NullPointerException();
+        return removeMatching(item -> !c.contains(item), false);
+    }
+
+    /** Удаляет из очереди все элементы, которые содержатся в коллекции.
+     *  Если удаляются выгруженные элементы, сегменты переписываются.
+     */
+    public synchronized boolean removeAll(Collection<?> c) {
+        if(c == null) throw new NullPointerException();
+        return removeMatching(c::contains, false);
+    }
+
+    /** Возвращает true, если очередь содержит все элементы коллекции.
+     *  Элементы, выгруженные на диск, читаются для проверки.
+     */
+    public synchronized boolean containsAll(Collection<?> c) {
+        if(c == null) throw new NullPointerException();
+        return snapshot().containsAll(c);
+    }
+
+    /** Возвращает количество элементов в очереди, в памяти и на диске
+     */
+    public synchronized int size() {
+        return list.size() + spilledSize;
+    }
+
+    /** Возвращает true, если очередь не содержит элементов
+     */
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Возвращает true, если очередь содержит элемент.
+     *  Элементы, выгруженные на диск, читаются для проверки.
+     */
+    public synchronized boolean contains(Object o) {
+        if(o == null) throw new NullPointerException();
+        return list.contains(o) || snapshot().contains(o);
+    }
+
+    /** Возвращает итератор по снимку всех элементов очереди, включая выгруженные.
+     *  Удаление через итератор не поддерживается.
+     */
+    public synchronized Iterator<T> iterator() {
+        return Collections.unmodifiableList(snapshot()).iterator();
+    }
+
+    /** Возвращает массив, содержащий все элементы очереди, включая выгруженные
+     */
+    public synchronized Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    public synchronized <E> E[] toArray(E[] a) {
+        return snapshot().toArray(a);
+    }
+
+    /** Удаляет все элементы из очереди, включая выгруженные, и добавляет их
+     *  к данной коллекции, возвращает количество перемещенных элементов
+     */
+    public synchronized int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /** Удаляет из очереди не более maxElements элементов и добавляет их
+     *  к данной коллекции, возвращает количество перемещенных элементов
+     */
+    public synchronized int drainTo(Collection<? super T> c, int maxElements) {
+        if(c == null) throw new NullPointerException();
+        if(c == this) throw new IllegalArgumentException();
+        int count = 0;
+        T item;
+        while (count < maxElements && (item = dequeue()) != null) {
+            c.add(item);
+            count++;
+        }
+        return count;
+    }
+
+    /** Удаляет файлы сегментов. Элементы, выгруженные на диск, теряются,
+     *  элементы в памяти остаются в очереди.
+     */
+    public synchronized void close() {
+        deleteSegments();
+        notifyAll();
+    }
+
+    /** Возвращает общее количество элементов, выгруженных на диск
+     */
+    public synchronized long getSpilledCount() {
+        return spilledCount;
+    }
+
+    /** Возвращает общее количество элементов, прочитанных с диска обратно в память
+     */
+    public synchronized long getReloadedCount() {
+        return reloadedCount;
+    }
+
+    /** Возвращает количество элементов, которые сейчас находятся на диске
+     */
+    public synchronized int getSpilledSize() {
+        return spilledSize;
+    }
+
+    /** Возвращает размер файлов сегментов на диске в байтах
+     */
+    public synchronized long getDiskUsage() {
+        return diskBytes;
+    }
+
+    /** Помещает элемент в память, если она не заполнена и на диске нет более
+     *  ранних элементов, иначе выгружает его на диск. Возвращает false, если
+     *  места нет ни там, ни там.
+     */
+    private boolean enqueue(T item) {
+        if(spilledSize == 0 && list.size() < limit) {
+            list.add(item);
+        } else if(!spill(item)) {
+            return false;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /** Забирает головной элемент из памяти и подгружает следующую пачку
+     *  с диска, если в памяти освободилось место на нее.
+     */
+    private T dequeue() {
+        if(list.isEmpty() && spilledSize > 0) {
+            reload();
+        }
+        T item = list.pollFirst();
+        if(item == null) {
+            return null;
+        }
+        if(spilledSize > 0 && limit - list.size() >= readAhead) {
+            reload();
+        }
+        notifyAll();
+        return item;
+    }
+
+    private boolean spill(T item) {
+        byte[] bytes = serializer.serialize(item);
+        long recordSize = Integer.BYTES + bytes.length;
+        if(diskBytes + recordSize > maxDiskBytes) {
+            return false;
+        }
+        try {
+            Segment tail = segments.peekLast();
+            if(tail == null || tail.bytes >= segmentSize) {
+                tail = openSegment();
+            }
+            if(buffer.remaining() < recordSize) {
+                flushWriter();
+            }
+            if(buffer.remaining() >= recordSize) {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            } else {
+                ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+                record.putInt(bytes.length);
+                record.put(bytes);
+                record.flip();
+                write(record);
+            }
+            tail.written++;
+            tail.bytes += recordSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        diskBytes += recordSize;
+        spilledSize++;
+        spilledCount++;
+        return true;
+    }
+
+    private Segment openSegment() throws IOException {
+        flushWriter();
+        if(writer != null) {
+            writer.close();
+            writer = null;
+        }
+        Path file = Files.createTempFile(directory, "segment-", ".spill");
+        try {
+            writer = FileChannel.open(file, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        Segment segment = new Segment(file.toFile());
+        segments.add(segment);
+        return segment;
+    }
+
+    /** Дописывает буфер в хвостовой сегмент. Если запись не удалась,
+     *  буфер остается нетронутым и будет дописан при следующей попытке.
+     */
+    private void flushWriter() throws IOException {
+        if(writer == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            write(buffer);
+            buffer.clear();
+        } catch (IOException e) {
+            int end = buffer.limit();
+            buffer.limit(buffer.capacity());
+            buffer.position(end);
+            throw e;
+        }
+    }
+
+    /** Пишет данные в хвостовой сегмент целиком. Если запись оборвалась
+     *  на середине, возвращает позицию записи на конец последней целой записи,
+     *  чтобы следующая легла поверх недописанных байтов, а не после них.
+     *  Хвост файла за последней целой записью никогда не читается.
+     */
+    private void write(ByteBuffer src) throws IOException {
+        long offset = writer.position();
+        try {
+            while (src.hasRemaining()) {
+                writer.write(src);
+            }
+        } catch (IOException e) {
+            writer.position(offset);
+            throw e;
+        }
+    }
+
+    /** Читает с диска в память следующую пачку элементов
+     */
+    private void reload() {
+        int count = Math.min(Math.min(readAhead, limit - list.size()), spilledSize);
+        try {
+            flushWriter();
+            for (int i = 0; i < count; i++) {
+                list.add(readRecord());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        reloadedCount += count;
+    }
+
+    private T readRecord() throws IOException {
+        Segment head = segments.getFirst();
+        if(reader == null) {
+            reader = new DataInputStream(new BufferedInputStream(new FileInputStream(head.file)));
+        }
+        byte[] bytes = new byte[reader.readInt()];
+        reader.readFully(bytes);
+        head.read++;
+        head.readBytes += Integer.BYTES + bytes.length;
+        spilledSize--;
+        if(head.read == head.written && (head != segments.getLast() || spilledSize == 0)) {
+            reader.close();
+            reader = null;
+            if(head == segments.getLast()) {
+                writer.close();
+                writer = null;
+            }
+            segments.removeFirst();
+            diskBytes -= head.bytes;
+            Files.deleteIfExists(head.file.toPath());
+        }
+        return serializer.deserialize(bytes);
+    }
+
+    /** Удаляет из памяти и с диска элементы, удовлетворяющие условию
+     *  (только первый, если first равен true). Если удалено что-то
+     *  из выгруженных элементов, оставшиеся переписываются в новые сегменты,
+     *  и только после этого старые удаляются, поэтому при ошибке записи
+     *  очередь остается прежней. На время перезаписи место на диске
+     *  занимают обе копии.
+     */
+    private boolean removeMatching(Predicate<? super T> filter, boolean first) {
+        boolean removed = removeFrom(list, filter, first);
+        if(spilledSize > 0 && !(first && removed)) {
+            List<T> spilled = readSpilled();
+            if(removeFrom(spilled, filter, first)) {
+                rewriteSpilled(spilled);
+                removed = true;
+            }
+        }
+        if(removed) {
+            notifyAll();
+        }
+        return removed;
+    }
+
+    private boolean removeFrom(List<T> items, Predicate<? super T> filter, boolean first) {
+        boolean removed = false;
+        for (Iterator<T> it = items.iterator(); it.hasNext(); ) {
+            if(filter.test(it.next())) {
+                it.remove();
+                removed = true;
+                if(first) {
+                    break;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** Заменяет все сегменты новыми, содержащими только items
+     */
+    private void rewriteSpilled(List<T> items) {
+        LinkedList<Segment> oldSegments = segments;
+        FileChannel oldWriter = writer;
+        DataInputStream oldReader = reader;
+        int oldSpilledSize = spilledSize;
+        long oldDiskBytes = diskBytes;
+        long oldSpilledCount = spilledCount;
+        segments = new LinkedList<Segment>();
+        writer = null;
+        reader = null;
+        spilledSize = 0;
+        diskBytes = 0;
+        try {
+            for (T item : items) {
+                spill(item);
+            }
+        } catch (RuntimeException e) {
+            try {
+                deleteSegments();
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            segments = oldSegments;
+            writer = oldWriter;
+            reader = oldReader;
+            spilledSize = oldSpilledSize;
+            diskBytes = oldDiskBytes;
+            spilledCount = oldSpilledCount;
+            throw e;
+        }
+        spilledCount = oldSpilledCount;
+        try {
+            if(oldReader != null) {
+                oldReader.close();
+            }
+            if(oldWriter != null) {
+                oldWriter.close();
+            }
+            for (Segment segment : oldSegments) {
+                Files.deleteIfExists(segment.file.toPath());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Возвращает список всех элементов очереди по порядку, читая выгруженные
+     *  элементы с диска без изменения позиции чтения
+     */
+    private List<T> snapshot() {
+        List<T> items = new ArrayList<T>(list);
+        items.addAll(readSpilled());
+        return items;
+    }
+
+    /** Читает с диска все выгруженные элементы по порядку без изменения
+     *  позиции чтения
+     */
+    private List<T> readSpilled() {
+        List<T> items = new ArrayList<T>(spilledSize);
+        if(spilledSize == 0) {
+            return items;
+        }
+        try {
+            flushWriter();
+            for (Segment segment : segments) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+                    in.skipNBytes(segment.readBytes);
+                    for (int i = segment.read; i < segment.written; i++) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        items.add(serializer.deserialize(bytes));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return items;
+    }
+
+    private void deleteSegments() {
+        try {
+            if(reader != null) {
+                reader.close();
+                reader = null;
+            }
+            if(writer != null) {
+                writer.close();
+                writer = null;
+            }
+            buffer.clear();
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.file.toPath());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.clear();
+        spilledSize = 0;
+        diskBytes = 0;
+    }
+
+    public SpillingBlockingQueue(int limit, Path directory, long maxDiskBytes, Serializer<T> serializer) {
+        this(limit, directory, maxDiskBytes, serializer,
+                Math.min(DEFAULT_SEGMENT_SIZE, Math.max(maxDiskBytes / 4, 1)), Math.max(limit / 4, 1));
+    }
+
+    public SpillingBlockingQueue(int limit, Path directory, long maxDiskBytes, Serializer<T> serializer,
+                                 long segmentSize, int readAhead) {
+        if (limit <= 0 || maxDiskBytes <= 0 || segmentSize <= 0) throw new IllegalArgumentException();
+        if (readAhead <= 0 || readAhead > limit) throw new IllegalArgumentException();
+        if (directory == null || serializer == null) throw new NullPointerException();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.limit = limit;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        this.readAhead = readAhead;
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Сравнение пропускной способности BatchingExecutor с ThreadPoolExecutor
+ *  на LinkedBlockingQueue и ForkJoinPool на множестве мелких задач.
+ *  Не является юнит-тестом, запускается вручную:
+ *  mvn test-compile && java -cp target/classes:target/test-classes BatchingExecutorBenchmark
+ */
+public class BatchingExecutorBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int SUBMITTERS = 4;
+    private static final int TASKS_PER_SUBMITTER = 500_000;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d threads, %d submitters, %d tasks per submitter%n",
+                THREADS, SUBMITTERS, TASKS_PER_SUBMITTER);
+        for (int round = 0; round < ROUNDS; round++) {
+            run("batching", new BatchingExecutor(THREADS, QUEUE_CAPACITY, BATCH_SIZE, false));
+            run("batching+steal", new BatchingExecutor(THREADS, QUEUE_CAPACITY, BATCH_SIZE, true));
+            run("tpe+lbq", new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>()));
+            run("forkjoin", new ForkJoinPool(THREADS));
+        }
+    }
+
+    /** Отправляет задачи из нескольких потоков и печатает количество
+     *  выполненных задач в секунду
+     */
+    private static void run(String name, ExecutorService executor) throws InterruptedException {
+        int total = SUBMITTERS * TASKS_PER_SUBMITTER;
+        LongAdder sum = new LongAdder();
+        CountDownLatch done = new CountDownLatch(total);
+        CountDownLatch start = new CountDownLatch(1);
+        Runnable task = () -> {
+            sum.increment();
+            done.countDown();
+        };
+        Thread[] submitters = new Thread[SUBMITTERS];
+        for (int s = 0; s < SUBMITTERS; s++) {
+            submitters[s] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < TASKS_PER_SUBMITTER; i++) {
+                        executor.execute(task);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            submitters[s].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.printf("%-15s %,12.0f tasks/s%n", name, total * 1e9 / elapsed);
+    }
+}
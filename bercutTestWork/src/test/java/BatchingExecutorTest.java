@@ -0,0 +1,197 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchingExecutorTest {
+    private BatchingExecutor executor;
+
+    @After
+    public void tearDown() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_ManyTasks_ShouldRunAllTasks() throws InterruptedException {
+        executor = new BatchingExecutor(4, 16, 8, false);
+        int count = 10000;
+        CountDownLatch done = new CountDownLatch(count);
+        for(int i = 0; i < count; i++) {
+            executor.execute(done::countDown);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_Callable_ShouldReturnResultThroughFuture() throws Exception {
+        executor = new BatchingExecutor(2, 16, 8, true);
+        Future<String> future = executor.submit(() -> "TestString");
+        Assert.assertEquals("TestString", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void execute_TasksWithSameKey_ShouldRunInSubmissionOrder() throws InterruptedException {
+        executor = new BatchingExecutor(4, 16, 8, true);
+        int count = 1000;
+        List<List<Integer>> results = new ArrayList<>();
+        for(int key = 0; key < 8; key++) {
+            results.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(count * results.size());
+        for(int i = 0; i < count; i++) {
+            for(int key = 0; key < results.size(); key++) {
+                List<Integer> result = results.get(key);
+                int value = i;
+                executor.execute(key, () -> {
+                    result.add(value);
+                    done.countDown();
+                });
+                executor.execute(() -> { });
+            }
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (List<Integer> result : results) {
+            for(int i = 0; i < count; i++) {
+                Assert.assertEquals(i, (int) result.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void execute_TasksBehindBlockedWorker_ShouldBeStolenByIdleWorker() throws InterruptedException {
+        executor = new BatchingExecutor(2, 16, 8, true);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute("key", () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(10);
+        for(int i = 0; i < 10; i++) {
+            executor.execute(done::countDown);
+        }
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.getStolenTaskCount() > 0);
+        release.countDown();
+    }
+
+    @Test
+    public void execute_KeyedTaskResubmittingMoreThanQueueCapacity_ShouldNotDeadlock() throws InterruptedException {
+        executor = new BatchingExecutor(2, 4, 4, true);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(11);
+        executor.execute("k", () -> {
+            for(int i = 0; i < 10; i++) {
+                int value = i;
+                executor.execute("k", () -> {
+                    order.add(value);
+                    done.countDown();
+                });
+            }
+            done.countDown();
+        });
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        for(int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void execute_FromTaskWhenAllQueuesAreFull_ShouldNotDeadlock() throws InterruptedException {
+        executor = new BatchingExecutor(2, 4, 4, false);
+        CountDownLatch done = new CountDownLatch(2 * 20);
+        CountDownLatch started = new CountDownLatch(2);
+        for(int w = 0; w < 2; w++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for(int i = 0; i < 20; i++) {
+                    executor.execute(done::countDown);
+                }
+            });
+        }
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdown_WithQueuedTasks_ShouldRunThemAndRejectNewOnes() throws InterruptedException {
+        executor = new BatchingExecutor(2, 16, 8, false);
+        AtomicInteger counter = new AtomicInteger();
+        for(int i = 0; i < 20; i++) {
+            executor.execute(counter::incrementAndGet);
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.isTerminated());
+        Assert.assertEquals(20, counter.get());
+        try {
+            executor.execute(counter::incrementAndGet);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            Assert.assertEquals(20, counter.get());
+        }
+    }
+
+    @Test
+    public void shutdown_WhileTaskIsRunning_ShouldNotInterruptIt() throws InterruptedException {
+        executor = new BatchingExecutor(2, 16, 8, true);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+        for(int i = 0; i < 10; i++) {
+            executor.execute(() -> { });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertFalse(interrupted.get());
+        Assert.assertEquals(11, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void shutdownNow_WithBlockedWorker_ShouldReturnQueuedTasks() throws InterruptedException {
+        executor = new BatchingExecutor(1, 16, 1, false);
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            blocked.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        Runnable queued = () -> { };
+        executor.execute(queued);
+        List<Runnable> pending = executor.shutdownNow();
+        Assert.assertEquals(List.of(queued), pending);
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
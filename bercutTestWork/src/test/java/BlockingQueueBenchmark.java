@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/** Простой замер пропускной способности и хвоста задержек очереди.
+ *  Не является юнит-тестом, запускается вручную:
+ *  mvn test-compile && java -cp target/classes:target/test-classes BlockingQueueBenchmark
+ */
+public class BlockingQueueBenchmark {
+
+    private static final int PRODUCERS = 8;
+    private static final int CONSUMERS = 8;
+    private static final int LIMIT = 16;
+    private static final int ITEMS_PER_PRODUCER = 200_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d producers, %d consumers, limit %d, %d items per producer%n",
+                PRODUCERS, CONSUMERS, LIMIT, ITEMS_PER_PRODUCER);
+        for (int round = 0; round < ROUNDS; round++) {
+            run("unfair", new BlockingQueue<Integer>(LIMIT, false));
+            run("fair", new BlockingQueue<Integer>(LIMIT, true));
+        }
+    }
+
+    /** Гоняет производителей и потребителей через очередь и печатает
+     *  пропускную способность и перцентили времени одного put
+     */
+    private static void run(String name, BlockingQueue<Integer> queue) throws InterruptedException {
+        long[][] latencies = new long[PRODUCERS][ITEMS_PER_PRODUCER];
+        int total = PRODUCERS * ITEMS_PER_PRODUCER;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            long[] producerLatencies = latencies[p];
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                        long begin = System.nanoTime();
+                        queue.put(i);
+                        producerLatencies[i] = System.nanoTime() - begin;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            int share = total / CONSUMERS + (c < total % CONSUMERS ? 1 : 0);
+            threads[PRODUCERS + c] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < share; i++) {
+                        queue.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = new long[total];
+        for (int p = 0; p < PRODUCERS; p++) {
+            System.arraycopy(latencies[p], 0, all, p * ITEMS_PER_PRODUCER, ITEMS_PER_PRODUCER);
+        }
+        Arrays.sort(all);
+        System.out.printf("%-8s %,12.0f ops/s  put p50 %,9d ns  p99 %,11d ns  p99.9 %,12d ns  max %,14d ns%n",
+                name, total * 1e9 / elapsed, percentile(all, 0.5), percentile(all, 0.99),
+                percentile(all, 0.999), all[all.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+    }
+}
@@ -3,6 +3,7 @@ import org.junit.Before;
 import org.junit.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
@@ -258,7 +259,7 @@ public class BlockingQueueTest {
     @Test
     public void put_ElementToQueueAndTakeItemAfter_ShouldPutElementToQueueAndThenPutItTo_stringsThatWereTaken() throws InterruptedException {
         BlockingQueue<String> queue = new BlockingQueue(limit);
-        List<String> stringsThatWereTaken = new ArrayList<>();
+        List<String> stringsThatWereTaken = Collections.synchronizedList(new ArrayList<>());
         List<String> stringsToPut = new ArrayList<>();
         String testString = "karamelka";
         boolean res = false;
@@ -278,7 +279,7 @@ public class BlockingQueueTest {
     public void put_ManyElementsToQueueAndTakeItemAfter() throws InterruptedException
     {
         BlockingQueue<String> queue = new BlockingQueue(limit);
-        List<String> stringsThatWereTaken = new ArrayList<>();
+        List<String> stringsThatWereTaken = Collections.synchronizedList(new ArrayList<>());
         List<String> stringsToPut = new ArrayList<>();
         boolean res = false;
         getTakeThread(queue, stringsThatWereTaken).start();
@@ -573,6 +574,401 @@ public class BlockingQueueTest {
         Assert.assertTrue(test.length == 10);
     }
 
+    @Test
+    public void put_ElementsToFullFairQueueFromSeveralThreads_ShouldAddElementsInArrivalOrder() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(1, true);
+        blockingQueue.add("Head");
+        for(int i = 0; i < 5; i++) {
+            List<String> stringsToPut = new ArrayList<>();
+            stringsToPut.add("Producer" + " " + i);
+            getPutThread(blockingQueue, stringsToPut).start();
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("Head", blockingQueue.take());
+        for(int i = 0; i < 5; i++) {
+            Assert.assertEquals("Producer" + " " + i, blockingQueue.take());
+        }
+    }
+
+    @Test
+    public void take_ElementsFromEmptyFairQueueBySeveralThreads_ShouldServeConsumersInArrivalOrder() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        String[] stringsThatWereTaken = new String[3];
+        Thread[] consumers = new Thread[3];
+        for(int i = 0; i < 3; i++) {
+            int index = i;
+            consumers[i] = new Thread(() -> {
+                try {
+                    stringsThatWereTaken[index] = blockingQueue.take();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            consumers[i].start();
+            Thread.sleep(50);
+        }
+        fillQueue(blockingQueue, 3);
+        for(int i = 0; i < 3; i++) {
+            consumers[i].join(1000);
+            Assert.assertEquals("Test string" + " " + i, stringsThatWereTaken[i]);
+        }
+        Assert.assertTrue(blockingQueue.isEmpty());
+    }
+
+    @Test
+    public void offer_ElementToFullFairQueue_ShouldReturnFalseAfterTimeout() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        fillQueue(blockingQueue, limit);
+        Assert.assertFalse(blockingQueue.offer("Item In Queue", 100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(limit, blockingQueue.size());
+    }
+
+    @Test
+    public void poll_ItemFromEmptyFairQueue_ShouldReturnNullAfterTimeout() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        Assert.assertNull(blockingQueue.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void put_ElementToFullFairQueueAndInterrupt_ShouldNotAddElement() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(1, true);
+        blockingQueue.add("Head");
+        List<String> stringsToPut = new ArrayList<>();
+        stringsToPut.add("String to put");
+        Thread putThread = new Thread(() -> {
+            try {
+                blockingQueue.put(stringsToPut.get(0));
+            } catch (InterruptedException e) {
+                stringsToPut.clear();
+            }
+        });
+        putThread.start();
+        Thread.sleep(100);
+        putThread.interrupt();
+        putThread.join(1000);
+        Assert.assertTrue(stringsToPut.isEmpty());
+        Assert.assertEquals("Head", blockingQueue.take());
+        Assert.assertTrue(blockingQueue.isEmpty());
+    }
+
+    @Test
+    public void offer_ElementToFullQueueWithDropNewestPolicy_ShouldDiscardElementAndReturnTrue() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        fillQueue(blockingQueue, limit);
+        Assert.assertTrue(blockingQueue.offer("TestString"));
+        Assert.assertFalse(blockingQueue.contains("TestString"));
+        Assert.assertEquals(1, blockingQueue.getOverflowCount(OverflowPolicy.DROP_NEWEST));
+    }
+
+    @Test
+    public void put_ElementToFullQueueWithDropOldestPolicy_ShouldEvictHeadAndAddElement() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        List<String> discarded = new ArrayList<>();
+        blockingQueue.setOverflowPolicy(OverflowPolicy.DROP_OLDEST, discarded::add);
+        fillQueue(blockingQueue, limit);
+        blockingQueue.put("TestString");
+        Assert.assertEquals(limit, blockingQueue.size());
+        Assert.assertEquals("Test string 1", blockingQueue.element());
+        Assert.assertTrue(blockingQueue.contains("TestString"));
+        Assert.assertEquals("Test string 0", discarded.get(0));
+        Assert.assertEquals(1, blockingQueue.getOverflowCount(OverflowPolicy.DROP_OLDEST));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void put_ElementToFullQueueWithFailPolicy_ShouldThrowIllegalStateWithoutWaiting() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.FAIL);
+        fillQueue(blockingQueue, limit);
+        blockingQueue.put("TestString");
+    }
+
+    @Test
+    public void offer_ElementsToFullQueueWithFailPolicy_ShouldCountRejections() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.FAIL);
+        fillQueue(blockingQueue, limit);
+        Assert.assertFalse(blockingQueue.offer("TestString"));
+        Assert.assertFalse(blockingQueue.offer("TestString", 1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, blockingQueue.getOverflowCount(OverflowPolicy.FAIL));
+        Assert.assertEquals(0, blockingQueue.getOverflowCount(OverflowPolicy.BLOCK));
+    }
+
+    @Test
+    public void offer_ElementToFullQueueWithCallerRunsPolicy_ShouldPassElementToHandlerInCallerThread() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        List<Thread> handlerThreads = new ArrayList<>();
+        blockingQueue.setOverflowPolicy(OverflowPolicy.CALLER_RUNS, item -> handlerThreads.add(Thread.currentThread()));
+        fillQueue(blockingQueue, limit);
+        Assert.assertTrue(blockingQueue.offer("TestString"));
+        Assert.assertEquals(Thread.currentThread(), handlerThreads.get(0));
+        Assert.assertFalse(blockingQueue.contains("TestString"));
+        Assert.assertEquals(1, blockingQueue.getOverflowCount(OverflowPolicy.CALLER_RUNS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setOverflowPolicy_CallerRunsWithoutHandler_ShouldThrowIllegalArgument() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+    }
+
+    @Test
+    public void put_ElementToFullQueueThen_setOverflowPolicy_DropNewestShouldReleaseProducer() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        fillQueue(blockingQueue, limit);
+        List<String> stringsToPut = new ArrayList<>();
+        stringsToPut.add("String to put");
+        Thread putThread = getPutThread(blockingQueue, stringsToPut);
+        putThread.start();
+        Thread.sleep(100);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        putThread.join(1000);
+        Assert.assertTrue(stringsToPut.isEmpty());
+        Assert.assertEquals(1, blockingQueue.getOverflowCount(OverflowPolicy.DROP_NEWEST));
+    }
+
+    @Test
+    public void put_ElementToFullFairQueueThen_setOverflowPolicy_DropNewestShouldReleaseProducer() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        fillQueue(blockingQueue, limit);
+        List<String> stringsToPut = new ArrayList<>();
+        stringsToPut.add("String to put");
+        Thread putThread = getPutThread(blockingQueue, stringsToPut);
+        putThread.start();
+        Thread.sleep(100);
+        blockingQueue.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        putThread.join(1000);
+        Assert.assertFalse(putThread.isAlive());
+        Assert.assertTrue(stringsToPut.isEmpty());
+        Assert.assertEquals(1, blockingQueue.getOverflowCount(OverflowPolicy.DROP_NEWEST));
+        Assert.assertEquals(limit, blockingQueue.size());
+    }
+
+    @Test
+    public void poll_ElementsFromQueueWithStandingBacklog_ShouldDropElementsWithLongSojourn() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(100);
+        List<String> dropped = new ArrayList<>();
+        blockingQueue.setSojournControl(1, 5, TimeUnit.MILLISECONDS, dropped::add);
+        fillQueue(blockingQueue, 100);
+        Thread.sleep(20);
+        List<String> stringsThatWereTaken = new ArrayList<>();
+        while (!blockingQueue.isEmpty()) {
+            String item = blockingQueue.poll();
+            if(item != null) {
+                stringsThatWereTaken.add(item);
+            }
+            Thread.sleep(2);
+        }
+        Assert.assertTrue(blockingQueue.getSojournDropCount() > 0);
+        Assert.assertEquals(blockingQueue.getSojournDropCount(), dropped.size());
+        Assert.assertEquals(100, stringsThatWereTaken.size() + dropped.size());
+        Assert.assertEquals("Test string 0", stringsThatWereTaken.get(0));
+    }
+
+    @Test
+    public void poll_ElementsWithSojournBelowTarget_ShouldNotDropElements() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setSojournControl(1, 1, TimeUnit.SECONDS);
+        fillQueue(blockingQueue, limit);
+        List<String> stringsThatWereTaken = new ArrayList<>();
+        blockingQueue.drainTo(stringsThatWereTaken);
+        Assert.assertEquals(limit, stringsThatWereTaken.size());
+        Assert.assertEquals(0, blockingQueue.getSojournDropCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSojournControl_WithoutInterval_ShouldThrowIllegalArgument() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setSojournControl(1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void poll_ElementsWithExpiredTimeToLive_ShouldSkipAndCountExpiredElements() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        List<String> expired = new ArrayList<>();
+        blockingQueue.setExpiryHandler(expired::add);
+        blockingQueue.setTimeToLive(50, TimeUnit.MILLISECONDS);
+        fillQueue(blockingQueue, 3);
+        Thread.sleep(100);
+        blockingQueue.add("Fresh string");
+        Assert.assertEquals("Fresh string", blockingQueue.poll());
+        Assert.assertEquals(3, blockingQueue.getExpiredCount());
+        Assert.assertEquals("Test string 0", expired.get(0));
+        Assert.assertTrue(blockingQueue.isEmpty());
+    }
+
+    @Test
+    public void offerExpiring_ElementWithShortTimeToLive_ShouldExpireOnlyThatElement() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.add("Head");
+        blockingQueue.offerExpiring("Short lived", 50, TimeUnit.MILLISECONDS);
+        blockingQueue.add("Tail");
+        Thread.sleep(100);
+        Assert.assertEquals("Head", blockingQueue.take());
+        Assert.assertEquals("Tail", blockingQueue.take());
+        Assert.assertEquals(1, blockingQueue.getExpiredCount());
+    }
+
+    @Test
+    public void put_ElementToFullQueueWithExpiredHead_ShouldEvictExpiredAndNotWait() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.putExpiring("Short lived", 50, TimeUnit.MILLISECONDS);
+        fillQueue(blockingQueue, limit - 1);
+        Thread.sleep(100);
+        Assert.assertTrue(blockingQueue.offer("String to put"));
+        Assert.assertEquals("Test string 0", blockingQueue.peek());
+        Assert.assertEquals(1, blockingQueue.getExpiredCount());
+    }
+
+    @Test
+    public void purgeExpired_WithExpiredElementsInMiddle_ShouldRemoveThem() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.add("Head");
+        blockingQueue.offerExpiring("Short lived 1", 50, TimeUnit.MILLISECONDS);
+        blockingQueue.offerExpiring("Short lived 2", 50, TimeUnit.MILLISECONDS);
+        blockingQueue.add("Tail");
+        Thread.sleep(100);
+        Assert.assertEquals(2, blockingQueue.purgeExpired());
+        Assert.assertEquals(2, blockingQueue.size());
+        Assert.assertEquals(2, blockingQueue.getExpiredCount());
+    }
+
+    @Test
+    public void drainTo_ElementsWithExpiredTimeToLive_ShouldNotMoveExpiredElements() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        blockingQueue.setTimeToLive(50, TimeUnit.MILLISECONDS);
+        fillQueue(blockingQueue, 5);
+        Thread.sleep(100);
+        blockingQueue.setTimeToLive(0, TimeUnit.MILLISECONDS);
+        blockingQueue.add("Fresh string");
+        List<String> drained = new ArrayList<>();
+        Assert.assertEquals(1, blockingQueue.drainTo(drained));
+        Assert.assertEquals("Fresh string", drained.get(0));
+        Assert.assertEquals(5, blockingQueue.getExpiredCount());
+    }
+
+    @Test
+    public void drainTo_MaxElementsFromFullQueue_ShouldMoveOnlyMaxElementsFromHead() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        fillQueue(blockingQueue, limit);
+        List<String> drained = new ArrayList<>();
+        Assert.assertEquals(3, blockingQueue.drainTo(drained, 3));
+        Assert.assertEquals(3, drained.size());
+        Assert.assertEquals("Test string 0", drained.get(0));
+        Assert.assertEquals("Test string 3", blockingQueue.peek());
+        Assert.assertEquals(limit - 3, blockingQueue.size());
+    }
+
+    @Test
+    public void drainTo_ElementsMatchingFilter_ShouldLeaveOtherElementsInOrder() {
+        BlockingQueue<Integer> blockingQueue = new BlockingQueue(limit);
+        for(int i = 0; i < limit; i++) {
+            blockingQueue.add(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(3, blockingQueue.drainTo(drained, 3, item -> item % 2 == 1));
+        Assert.assertEquals(List.of(1, 3, 5), drained);
+        Assert.assertEquals(List.of(0, 2, 4, 6, 7, 8, 9), new ArrayList<>(blockingQueue));
+    }
+
+    @Test
+    public void takeBatch_FromEmptyQueue_ShouldWaitForElementAndMoveAllAvailable() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        List<String> taken = new ArrayList<>();
+        Thread threadTake = new Thread(() -> {
+            try {
+                blockingQueue.takeBatch(taken, limit);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        threadTake.start();
+        Thread.sleep(100);
+        Assert.assertTrue(threadTake.isAlive());
+        synchronized (blockingQueue) {
+            fillQueue(blockingQueue, 5);
+        }
+        threadTake.join(1000);
+        Assert.assertFalse(threadTake.isAlive());
+        Assert.assertEquals(5, taken.size());
+        Assert.assertTrue(blockingQueue.isEmpty());
+    }
+
+    @Test
+    public void takeBatch_FromFullQueueInFairMode_ShouldReleaseWaitingProducers() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        fillQueue(blockingQueue, limit);
+        Thread threadPut = getPutThread(blockingQueue, new ArrayList<>(List.of("TestString")));
+        threadPut.start();
+        Thread.sleep(100);
+        List<String> taken = new ArrayList<>();
+        Assert.assertEquals(4, blockingQueue.takeBatch(taken, 4));
+        threadPut.join(1000);
+        Assert.assertFalse(threadPut.isAlive());
+        Assert.assertEquals(limit - 3, blockingQueue.size());
+    }
+
+    @Test
+    public void setCapacity_GrowFullQueue_ShouldReleaseBlockedProducers() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        fillQueue(blockingQueue, limit);
+        Thread threadPut = getPutThread(blockingQueue, new ArrayList<>(List.of("TestString 1", "TestString 2")));
+        threadPut.start();
+        Thread.sleep(100);
+        Assert.assertTrue(threadPut.isAlive());
+        blockingQueue.setCapacity(limit + 2);
+        threadPut.join(1000);
+        Assert.assertFalse(threadPut.isAlive());
+        Assert.assertEquals(limit + 2, blockingQueue.size());
+        Assert.assertEquals(limit + 2, blockingQueue.getCapacity());
+    }
+
+    @Test
+    public void setCapacity_GrowFullQueueInFairMode_ShouldReleaseBlockedProducers() throws InterruptedException {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit, true);
+        fillQueue(blockingQueue, limit);
+        Thread threadPut = getPutThread(blockingQueue, new ArrayList<>(List.of("TestString")));
+        threadPut.start();
+        Thread.sleep(100);
+        blockingQueue.setCapacity(limit + 1);
+        threadPut.join(1000);
+        Assert.assertFalse(threadPut.isAlive());
+        Assert.assertEquals(limit + 1, blockingQueue.size());
+    }
+
+    @Test
+    public void setCapacity_ShrinkFullQueue_ShouldKeepElementsAndRejectOffersUntilDrained() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        fillQueue(blockingQueue, limit);
+        blockingQueue.setCapacity(5);
+        Assert.assertEquals(limit, blockingQueue.size());
+        Assert.assertEquals(0, blockingQueue.remainingCapacity());
+        Assert.assertFalse(blockingQueue.offer("TestString"));
+        for(int i = 0; i < limit - 4; i++) {
+            Assert.assertEquals("Test string " + i, blockingQueue.poll());
+        }
+        Assert.assertEquals(1, blockingQueue.remainingCapacity());
+        Assert.assertTrue(blockingQueue.offer("TestString"));
+        Assert.assertFalse(blockingQueue.offer("TestString"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setCapacity_ZeroCapacity_ShouldThrowIllegalArgument() {
+        new BlockingQueue<String>(limit).setCapacity(0);
+    }
+
+    @Test
+    public void offerAll_MoreElementsThanFreeSpace_ShouldAddOnlyFittingElementsInOrder() {
+        BlockingQueue<String> blockingQueue = new BlockingQueue(limit);
+        fillQueue(blockingQueue, limit - 2);
+        Assert.assertEquals(2, blockingQueue.offerAll(List.of("TestString 1", "TestString 2", "TestString 3")));
+        Assert.assertEquals(limit, blockingQueue.size());
+        List<String> drained = new ArrayList<>();
+        blockingQueue.drainTo(drained);
+        Assert.assertEquals("TestString 1", drained.get(limit - 2));
+        Assert.assertEquals("TestString 2", drained.get(limit - 1));
+    }
+
     private void fillQueue(BlockingQueue<String> blockingQueue, int count){
         for(int i = 0; i < count; i++ ) {
             blockingQueue.add("Test string" + " " + i);
@@ -0,0 +1,128 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PartitionedBlockingQueueTest {
+    private int limit = 10;
+
+    @Test
+    public void lease_PartitionWithElements_ShouldReturnElementsOfOneKeyInOrder() throws InterruptedException {
+        PartitionedBlockingQueue<Character, String> queue = newQueue(limit);
+        queue.put("a1");
+        queue.put("b1");
+        queue.put("a2");
+        try (PartitionedBlockingQueue<Character, String>.Lease lease = queue.lease()) {
+            Assert.assertEquals('a', (char) lease.key());
+            Assert.assertEquals("a1", lease.poll());
+            Assert.assertEquals("a2", lease.poll());
+            Assert.assertNull(lease.poll());
+        }
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void lease_WhilePartitionIsLeased_ShouldNotGiveItToOtherConsumer() throws InterruptedException {
+        PartitionedBlockingQueue<Character, String> queue = newQueue(limit);
+        queue.put("a1");
+        PartitionedBlockingQueue<Character, String>.Lease lease = queue.lease();
+        queue.put("a2");
+        Assert.assertNull(queue.lease(100, TimeUnit.MILLISECONDS));
+        lease.close();
+        try (PartitionedBlockingQueue<Character, String>.Lease next = queue.lease(100, TimeUnit.MILLISECONDS)) {
+            Assert.assertEquals("a1", next.poll());
+            Assert.assertEquals("a2", next.poll());
+        }
+    }
+
+    @Test
+    public void put_ToFullQueue_ShouldWaitUntilAnyPartitionIsConsumed() throws InterruptedException {
+        PartitionedBlockingQueue<Character, String> queue = newQueue(2);
+        queue.put("a1");
+        queue.put("b1");
+        Assert.assertFalse(queue.offer("c1"));
+        Thread threadPut = new Thread(() -> {
+            try {
+                queue.put("c1");
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        threadPut.start();
+        Thread.sleep(100);
+        Assert.assertTrue(threadPut.isAlive());
+        try (PartitionedBlockingQueue<Character, String>.Lease lease = queue.lease()) {
+            lease.poll();
+        }
+        threadPut.join(1000);
+        Assert.assertFalse(threadPut.isAlive());
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void poll_FromClosedLease_ShouldThrowIllegalState() throws InterruptedException {
+        PartitionedBlockingQueue<Character, String> queue = newQueue(limit);
+        queue.put("a1");
+        PartitionedBlockingQueue<Character, String>.Lease lease = queue.lease();
+        lease.close();
+        lease.poll();
+    }
+
+    @Test
+    public void lease_ByManyConsumers_ShouldKeepOrderPerKeyAndProcessKeysInParallel() throws InterruptedException {
+        PartitionedBlockingQueue<Character, String> queue = newQueue(limit);
+        int keys = 8;
+        int perKey = 200;
+        ConcurrentHashMap<Character, List<String>> results = new ConcurrentHashMap<>();
+        AtomicInteger leased = new AtomicInteger();
+        AtomicInteger maxLeased = new AtomicInteger();
+        Thread[] consumers = new Thread[4];
+        for(int c = 0; c < consumers.length; c++) {
+            consumers[c] = new Thread(() -> {
+                try {
+                    PartitionedBlockingQueue<Character, String>.Lease lease;
+                    while ((lease = queue.lease(500, TimeUnit.MILLISECONDS)) != null) {
+                        maxLeased.accumulateAndGet(leased.incrementAndGet(), Math::max);
+                        List<String> result = results.computeIfAbsent(lease.key(), key -> new ArrayList<>());
+                        String item;
+                        while ((item = lease.poll()) != null) {
+                            result.add(item);
+                            Thread.sleep(1);
+                        }
+                        leased.decrementAndGet();
+                        lease.close();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            consumers[c].start();
+        }
+        for(int i = 0; i < perKey; i++) {
+            for(int key = 0; key < keys; key++) {
+                queue.put((char) ('a' + key) + "" + i);
+            }
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        Assert.assertEquals(keys, results.size());
+        for (List<String> result : results.values()) {
+            Assert.assertEquals(perKey, result.size());
+            for(int i = 0; i < perKey; i++) {
+                Assert.assertEquals(result.get(0).charAt(0) + "" + i, result.get(i));
+            }
+        }
+        Assert.assertTrue(maxLeased.get() > 1);
+        Assert.assertEquals(0, queue.getPartitionCount());
+    }
+
+    private PartitionedBlockingQueue<Character, String> newQueue(int limit) {
+        return new PartitionedBlockingQueue<>(limit, item -> item.charAt(0));
+    }
+}
@@ -0,0 +1,244 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PipelineTest {
+    private int limit = 10;
+    private Pipeline<?> pipeline;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if(pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    public void start_PipelineWithTwoSegments_ShouldTransformElementsInOrder() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(limit);
+        BlockingQueue<String> middle = new BlockingQueue<>(limit);
+        BlockingQueue<String> output = new BlockingQueue<>(100);
+        Pipeline<String> running = Pipeline.from(input)
+                .filter("even", item -> item % 2 == 0)
+                .map("format", item -> "Test string " + item)
+                .to(middle)
+                .map("upper", String::toUpperCase)
+                .to(output)
+                .start(4);
+        pipeline = running;
+        for(int i = 0; i < 100; i++) {
+            input.put(i);
+        }
+        for(int i = 0; i < 100; i += 2) {
+            Assert.assertEquals("TEST STRING " + i, output.poll(1, TimeUnit.SECONDS));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (running.getProcessedCount("even") < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(100, running.getProcessedCount("even"));
+        Assert.assertEquals(50, running.getProcessedCount("format"));
+        Assert.assertEquals(50, running.getProcessedCount("upper"));
+        Assert.assertTrue(running.getThroughput("upper") > 0);
+    }
+
+    @Test
+    public void start_AdjacentStages_ShouldRunOnOneThread() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(limit);
+        BlockingQueue<Integer> output = new BlockingQueue<>(limit);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        pipeline = Pipeline.from(input)
+                .map("first", item -> {
+                    threads.add(Thread.currentThread().getName());
+                    return item + 1;
+                })
+                .map("second", item -> {
+                    threads.add(Thread.currentThread().getName());
+                    return item * 2;
+                })
+                .to(output)
+                .start(4);
+        input.put(1);
+        Assert.assertEquals(4, (int) output.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, threads.size());
+    }
+
+    @Test
+    public void start_WithFullLastQueue_ShouldStopConsumingFirstQueue() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(limit);
+        BlockingQueue<Integer> middle = new BlockingQueue<>(limit);
+        BlockingQueue<Integer> output = new BlockingQueue<>(limit);
+        pipeline = Pipeline.from(input).to(middle).to(output).start(4);
+        int offered = 0;
+        while (input.offer(offered, 100, TimeUnit.MILLISECONDS)) {
+            offered++;
+        }
+        Assert.assertTrue(offered < 100);
+        Assert.assertEquals(0, input.remainingCapacity());
+        List<Integer> taken = new ArrayList<>();
+        for(int i = 0; i < offered; i++) {
+            taken.add(output.poll(1, TimeUnit.SECONDS));
+        }
+        for(int i = 0; i < offered; i++) {
+            Assert.assertEquals(i, (int) taken.get(i));
+        }
+    }
+
+    @Test
+    public void stop_RunningPipeline_ShouldNotLoseElements() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(100);
+        BlockingQueue<Integer> middle = new BlockingQueue<>(100);
+        BlockingQueue<Integer> output = new BlockingQueue<>(100);
+        Pipeline<Integer> running = Pipeline.from(input).map("copy", item -> item).to(middle).to(output).start(8);
+        for(int i = 0; i < 100; i++) {
+            input.put(i);
+        }
+        running.stop();
+        Assert.assertEquals(100, input.size() + middle.size() + output.size());
+    }
+
+    @Test
+    public void stop_PipelineUnderBackpressureWithSmallMiddleQueue_ShouldReturnWithoutLosingElements() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(1000);
+        BlockingQueue<Integer> middle = new BlockingQueue<>(4);
+        BlockingQueue<Integer> output = new BlockingQueue<>(4);
+        for(int i = 0; i < 1000; i++) {
+            input.put(i);
+        }
+        Pipeline<Integer> running = Pipeline.from(input).to(middle).to(output).start(8);
+        List<Integer> drained = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean draining = new AtomicBoolean(true);
+        Thread drainer = new Thread(() -> {
+            try {
+                while (draining.get()) {
+                    Integer item = output.poll(10, TimeUnit.MILLISECONDS);
+                    if(item != null) {
+                        drained.add(item);
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        drainer.start();
+        while (drained.size() < 10) {
+            Thread.sleep(1);
+        }
+        Thread stopper = new Thread(() -> {
+            try {
+                running.stop();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        stopper.start();
+        stopper.join(3000);
+        Assert.assertFalse(stopper.isAlive());
+        draining.set(false);
+        drainer.join();
+        Assert.assertEquals(1000, input.size() + middle.size() + output.size() + drained.size());
+        for(int i = 0; i < drained.size(); i++) {
+            Assert.assertEquals(i, (int) drained.get(i));
+        }
+    }
+
+    @Test
+    public void start_StageThrowingOnElement_ShouldReportItAndKeepProcessingOthers() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(limit);
+        BlockingQueue<Integer> output = new BlockingQueue<>(limit);
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        Pipeline<Integer> running = Pipeline.from(input)
+                .map("check", item -> {
+                    if(item == 3) {
+                        throw new IllegalArgumentException();
+                    }
+                    return item;
+                })
+                .to(output)
+                .onError((item, e) -> failed.add((Integer) item))
+                .start(limit);
+        pipeline = running;
+        synchronized (input) {
+            for(int i = 0; i < 6; i++) {
+                input.put(i);
+            }
+        }
+        for(int i = 0; i < 6; i++) {
+            if(i != 3) {
+                Assert.assertEquals(i, (int) output.poll(1, TimeUnit.SECONDS));
+            }
+        }
+        input.put(6);
+        Assert.assertEquals(6, (int) output.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of(3), failed);
+        Assert.assertEquals(1, running.getFailedCount("check"));
+        Assert.assertEquals(7, running.getProcessedCount("check"));
+    }
+
+    @Test
+    public void start_LastQueueWithFailPolicy_ShouldReportRejectedElementsAndKeepWorking() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(100);
+        BlockingQueue<Integer> output = new BlockingQueue<>(2);
+        output.setOverflowPolicy(OverflowPolicy.FAIL);
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        Pipeline<Integer> running = Pipeline.from(input)
+                .to(output)
+                .onError((item, e) -> failed.add((Integer) item))
+                .start(limit);
+        pipeline = running;
+        synchronized (input) {
+            for(int i = 0; i < 10; i++) {
+                input.put(i);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (running.getRejectedCount() < 8 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(8, running.getRejectedCount());
+        Assert.assertEquals(List.of(2, 3, 4, 5, 6, 7, 8, 9), failed);
+        Assert.assertEquals(0, (int) output.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, (int) output.poll(1, TimeUnit.SECONDS));
+        input.put(10);
+        Assert.assertEquals(10, (int) output.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stop_WithTimeoutWhenLastQueueIsNotRead_ShouldReturnUnplacedElements() throws InterruptedException {
+        BlockingQueue<Integer> input = new BlockingQueue<>(100);
+        BlockingQueue<Integer> output = new BlockingQueue<>(4);
+        Pipeline<Integer> running = Pipeline.from(input).to(output).start(8);
+        for(int i = 0; i < 20; i++) {
+            input.put(i);
+        }
+        while (output.remainingCapacity() > 0) {
+            Thread.sleep(1);
+        }
+        long begin = System.nanoTime();
+        List<Object> unplaced = running.stop(100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(20, input.size() + output.size() + unplaced.size());
+        List<Object> all = new ArrayList<>(output);
+        all.addAll(unplaced);
+        all.addAll(input);
+        for(int i = 0; i < 20; i++) {
+            Assert.assertEquals(i, all.get(i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void to_StatefulStageWithSeveralThreads_ShouldThrowIllegalState() {
+        int[] sum = new int[1];
+        Pipeline.from(new BlockingQueue<Integer>(limit))
+                .mapStateful("sum", item -> sum[0] += item)
+                .to(new BlockingQueue<Integer>(limit), 2);
+    }
+}
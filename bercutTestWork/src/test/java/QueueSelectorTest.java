@@ -0,0 +1,176 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class QueueSelectorTest {
+    private int limit = 10;
+
+    @Test
+    public void take_FromEmptyQueues_ShouldWaitUntilAnyQueueGetsElement() throws InterruptedException {
+        BlockingQueue<String> first = new BlockingQueue<>(limit);
+        BlockingQueue<String> second = new BlockingQueue<>(limit);
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(first);
+        selector.register(second);
+        AtomicReference<String> taken = new AtomicReference<>();
+        Thread threadTake = new Thread(() -> {
+            try {
+                taken.set(selector.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        threadTake.start();
+        Thread.sleep(100);
+        Assert.assertTrue(threadTake.isAlive());
+        second.put("TestString");
+        threadTake.join(1000);
+        Assert.assertFalse(threadTake.isAlive());
+        Assert.assertEquals("TestString", taken.get());
+        Assert.assertTrue(second.isEmpty());
+    }
+
+    @Test
+    public void poll_FromEmptyQueues_ShouldReturnNullAfterTimeout() throws InterruptedException {
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(new BlockingQueue<>(limit));
+        long begin = System.nanoTime();
+        Assert.assertNull(selector.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void take_InPriorityMode_ShouldPreferQueueWithHigherPriority() throws InterruptedException {
+        BlockingQueue<String> low = new BlockingQueue<>(limit);
+        BlockingQueue<String> high = new BlockingQueue<>(limit);
+        QueueSelector<String> selector = new QueueSelector<>(true);
+        selector.register(low, 1);
+        selector.register(high, 5);
+        low.put("low");
+        high.put("high 1");
+        high.put("high 2");
+        Assert.assertEquals("high 1", selector.take());
+        Assert.assertEquals("high 2", selector.take());
+        Assert.assertEquals("low", selector.take());
+    }
+
+    @Test
+    public void take_FromWeightedQueues_ShouldTakeProportionallyToWeights() throws InterruptedException {
+        BlockingQueue<String> heavy = new BlockingQueue<>(100);
+        BlockingQueue<String> light = new BlockingQueue<>(100);
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(heavy, 3);
+        selector.register(light, 1);
+        for(int i = 0; i < 100; i++) {
+            heavy.put("heavy");
+            light.put("light");
+        }
+        int heavyCount = 0;
+        for(int i = 0; i < 80; i++) {
+            if(selector.take().equals("heavy")) {
+                heavyCount++;
+            }
+        }
+        Assert.assertEquals(60, heavyCount);
+    }
+
+    @Test
+    public void select_WithElementInQueue_ShouldReturnReadyQueueWithoutTakingElement() throws InterruptedException {
+        BlockingQueue<String> first = new BlockingQueue<>(limit);
+        BlockingQueue<String> second = new BlockingQueue<>(limit);
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(first);
+        selector.register(second);
+        first.put("TestString");
+        Assert.assertSame(first, selector.select());
+        Assert.assertEquals(1, first.size());
+    }
+
+    @Test
+    public void take_ByManyConsumers_ShouldDeliverEveryElementExactlyOnce() throws InterruptedException {
+        BlockingQueue<Integer> first = new BlockingQueue<>(limit);
+        BlockingQueue<Integer> second = new BlockingQueue<>(limit);
+        QueueSelector<Integer> selector = new QueueSelector<>();
+        selector.register(first);
+        selector.register(second);
+        int count = 2000;
+        Set<Integer> taken = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        Thread[] consumers = new Thread[4];
+        for(int c = 0; c < consumers.length; c++) {
+            consumers[c] = new Thread(() -> {
+                try {
+                    Integer item;
+                    while ((item = selector.poll(1, TimeUnit.SECONDS)) != null && item >= 0) {
+                        if(!taken.add(item)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            consumers[c].start();
+        }
+        for(int i = 0; i < count; i++) {
+            (i % 2 == 0 ? first : second).put(i);
+        }
+        for(int c = 0; c < consumers.length; c++) {
+            first.put(-1);
+        }
+        for (Thread consumer : consumers) {
+            consumer.join(5000);
+            Assert.assertFalse(consumer.isAlive());
+        }
+        Assert.assertEquals(count, taken.size());
+        Assert.assertEquals(0, duplicates.get());
+    }
+
+    @Test
+    public void take_AfterEarlierWaiterWasInterrupted_ShouldBeWokenByNextElement() throws InterruptedException {
+        BlockingQueue<String> queue = new BlockingQueue<>(limit);
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(queue);
+        Thread interrupted = new Thread(() -> {
+            try {
+                selector.take();
+            } catch (InterruptedException e) {
+                // ожидаемо
+            }
+        });
+        interrupted.start();
+        Thread.sleep(100);
+        AtomicReference<String> taken = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                taken.set(selector.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        waiting.start();
+        Thread.sleep(100);
+        interrupted.interrupt();
+        interrupted.join(1000);
+        queue.put("TestString");
+        waiting.join(1000);
+        Assert.assertFalse(waiting.isAlive());
+        Assert.assertEquals("TestString", taken.get());
+    }
+
+    @Test
+    public void unregister_Queue_ShouldNotSelectItAnyMore() throws InterruptedException {
+        BlockingQueue<String> queue = new BlockingQueue<>(limit);
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register(queue);
+        Assert.assertTrue(selector.unregister(queue));
+        queue.put("TestString");
+        Assert.assertNull(selector.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(selector.unregister(queue));
+    }
+}
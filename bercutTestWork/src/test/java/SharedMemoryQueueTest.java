@@ -0,0 +1,215 @@
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedMemoryQueueTest {
+    private int capacity = 16;
+    private int maxRecordSize = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void offer_ElementToEmptyQueue_ShouldBeVisibleThroughSecondMapping() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        try (SharedMemoryQueue<String> producer = newQueue(file);
+             SharedMemoryQueue<String> consumer = newQueue(file)) {
+            Assert.assertTrue(producer.offer("TestString"));
+            Assert.assertEquals(1, consumer.size());
+            Assert.assertEquals("TestString", consumer.poll());
+            Assert.assertNull(consumer.poll());
+        }
+    }
+
+    @Test
+    public void offer_ElementToFullQueue_ShouldReturnFalse() throws Exception {
+        try (SharedMemoryQueue<String> queue = newQueue(folder.getRoot().toPath().resolve("queue"))) {
+            for(int i = 0; i < capacity; i++) {
+                Assert.assertTrue(queue.offer("Test string " + i));
+            }
+            Assert.assertFalse(queue.offer("TestString"));
+            Assert.assertEquals(0, queue.remainingCapacity());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offer_ElementLargerThanSlot_ShouldThrowIllegalArgument() throws Exception {
+        try (SharedMemoryQueue<String> queue = newQueue(folder.getRoot().toPath().resolve("queue"))) {
+            queue.offer(new String(new char[maxRecordSize + 1]));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void open_ExistingQueueWithDifferentCapacity_ShouldThrowIllegalState() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        try (SharedMemoryQueue<String> queue = newQueue(file)) {
+            new SharedMemoryQueue<>(file, capacity * 2, maxRecordSize, stringSerializer());
+        }
+    }
+
+    @Test
+    public void open_ExistingQueueWithLargerCapacity_ShouldNotGrowFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        try (SharedMemoryQueue<String> queue = newQueue(file)) {
+            long size = Files.size(file);
+            try {
+                new SharedMemoryQueue<>(file, capacity * 2, maxRecordSize, stringSerializer());
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals(size, Files.size(file));
+            }
+        }
+    }
+
+    @Test
+    public void put_ToFullQueue_ShouldSerializeElementOnce() throws Exception {
+        AtomicInteger serializations = new AtomicInteger();
+        Serializer<String> serializer = stringSerializer();
+        Serializer<String> counting = new Serializer<String>() {
+            public byte[] serialize(String item) {
+                serializations.incrementAndGet();
+                return serializer.serialize(item);
+            }
+
+            public String deserialize(byte[] bytes) {
+                return serializer.deserialize(bytes);
+            }
+        };
+        try (SharedMemoryQueue<String> queue = new SharedMemoryQueue<>(folder.getRoot().toPath().resolve("queue"),
+                capacity, maxRecordSize, counting)) {
+            for(int i = 0; i < capacity; i++) {
+                queue.put("Test string " + i);
+            }
+            serializations.set(0);
+            Assert.assertFalse(queue.offer("TestString", 50, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(1, serializations.get());
+        }
+    }
+
+    @Test
+    public void poll_RecordWithCorruptedLength_ShouldReleaseSlotAndThrowIllegalState() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        try (SharedMemoryQueue<String> queue = newQueue(file);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Assert.assertTrue(queue.offer("Broken string"));
+            Assert.assertTrue(queue.offer("Test string"));
+            // длина записи первого слота: заголовок 192 байта, затем long sequence
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.nativeOrder());
+            length.putInt(maxRecordSize + 1).flip();
+            channel.write(length, 192 + Long.BYTES);
+            try {
+                queue.poll();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("Test string", queue.poll());
+            }
+            for(int i = 0; i < capacity; i++) {
+                Assert.assertTrue(queue.offer("Test string " + i));
+            }
+            Assert.assertEquals("Test string 0", queue.poll());
+        }
+    }
+
+    @Test
+    public void poll_ItemFromEmptyQueue_ShouldReturnNullAfterTimeout() throws Exception {
+        try (SharedMemoryQueue<String> queue = newQueue(folder.getRoot().toPath().resolve("queue"))) {
+            Assert.assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void put_ManyElementsFromOtherMappingAndTake_ShouldKeepOrder() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        int count = 10000;
+        try (SharedMemoryQueue<String> producer = newQueue(file);
+             SharedMemoryQueue<String> consumer = newQueue(file)) {
+            Thread producerThread = new Thread(() -> {
+                try {
+                    for(int i = 0; i < count; i++) {
+                        producer.put("Test string " + i);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            producerThread.start();
+            for(int i = 0; i < count; i++) {
+                Assert.assertEquals("Test string " + i, consumer.take());
+            }
+            producerThread.join();
+            Assert.assertTrue(consumer.isEmpty());
+        }
+    }
+
+    @Test
+    public void take_ElementsPutByOtherProcess_ShouldKeepOrderAndCount() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queue");
+        int count = 10000;
+        try (SharedMemoryQueue<String> consumer = newQueue(file)) {
+            Process producer = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    ChildProducer.class.getName(),
+                    file.toString(), String.valueOf(capacity), String.valueOf(maxRecordSize), String.valueOf(count))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            try {
+                for(int i = 0; i < count; i++) {
+                    Assert.assertEquals("Test string " + i, consumer.poll(30, TimeUnit.SECONDS));
+                }
+                Assert.assertTrue(producer.waitFor(30, TimeUnit.SECONDS));
+                Assert.assertEquals(0, producer.exitValue());
+                Assert.assertTrue(consumer.isEmpty());
+            } finally {
+                producer.destroyForcibly();
+            }
+        }
+    }
+
+    /** Производитель для запуска в отдельной JVM: открывает очередь
+     *  в указанном файле и кладет в нее count строк по порядку
+     */
+    public static class ChildProducer {
+        public static void main(String[] args) throws Exception {
+            Path file = Paths.get(args[0]);
+            int capacity = Integer.parseInt(args[1]);
+            int maxRecordSize = Integer.parseInt(args[2]);
+            int count = Integer.parseInt(args[3]);
+            try (SharedMemoryQueue<String> producer = new SharedMemoryQueue<>(file, capacity, maxRecordSize,
+                    new SharedMemoryQueueTest().stringSerializer())) {
+                for(int i = 0; i < count; i++) {
+                    producer.put("Test string " + i);
+                }
+            }
+        }
+    }
+
+    private SharedMemoryQueue<String> newQueue(Path file) {
+        return new SharedMemoryQueue<>(file, capacity, maxRecordSize, stringSerializer());
+    }
+
+    private Serializer<String> stringSerializer() {
+        return new Serializer<String>() {
+            public byte[] serialize(String item) {
+                return item.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
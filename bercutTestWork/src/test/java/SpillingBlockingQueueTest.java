@@ -0,0 +1,193 @@
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SpillingBlockingQueueTest {
+    private int limit = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void offer_ElementsOverLimit_ShouldSpillToDiskAndKeepOrder() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, 35);
+        Assert.assertEquals(35, queue.size());
+        Assert.assertEquals(25, queue.getSpilledCount());
+        for(int i = 0; i < 35; i++) {
+            Assert.assertEquals("Test string " + i, queue.take());
+        }
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(25, queue.getReloadedCount());
+        Assert.assertEquals(0, queue.getDiskUsage());
+    }
+
+    @Test
+    public void offer_ElementsWhenSpilled_ShouldNotOvertakeSpilledElements() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, limit + 1);
+        Assert.assertEquals("Test string 0", queue.poll());
+        queue.offer("Late string");
+        List<String> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        Assert.assertEquals("Test string " + limit, drained.get(limit - 1));
+        Assert.assertEquals("Late string", drained.get(limit));
+    }
+
+    @Test
+    public void offer_ElementsLargerThanWriteBuffer_ShouldSpillAndReadBackInOrder() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        String padding = "x".repeat(10000);
+        for(int i = 0; i < 15; i++) {
+            queue.add(i + padding);
+        }
+        Assert.assertEquals(5, queue.getSpilledSize());
+        for(int i = 0; i < 15; i++) {
+            Assert.assertEquals(i + padding, queue.take());
+        }
+    }
+
+    @Test
+    public void offer_ElementToFullDisk_ShouldReturnFalse() {
+        SpillingBlockingQueue<String> queue = newQueue(54);
+        fillQueue(queue, limit);
+        Assert.assertTrue(queue.offer("Spilled 1"));
+        Assert.assertTrue(queue.offer("Spilled 2"));
+        Assert.assertTrue(queue.offer("Spilled 3"));
+        Assert.assertFalse(queue.offer("No place on disk"));
+        Assert.assertEquals(3, queue.getSpilledSize());
+    }
+
+    @Test
+    public void put_ElementToFullDisk_ShouldWaitUntilConsumerTakesElement() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(54);
+        fillQueue(queue, limit + 3);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("Waiting string");
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        producer.start();
+        Thread.sleep(200);
+        Assert.assertFalse(queue.contains("Waiting string"));
+        for(int i = 0; i < 4; i++) {
+            queue.take();
+        }
+        producer.join(1000);
+        Assert.assertTrue(queue.contains("Waiting string"));
+    }
+
+    @Test
+    public void poll_FromEmptyQueue_ShouldReturnNullAfterTimeout() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024);
+        Assert.assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void toArray_WithSpilledElements_ShouldReturnAllElementsInOrder() {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, 20);
+        Object[] items = queue.toArray();
+        Assert.assertEquals(20, items.length);
+        Assert.assertEquals("Test string 19", items[19]);
+        Assert.assertEquals(20, queue.size());
+    }
+
+    @Test
+    public void clear_WithSpilledElements_ShouldDeleteSegments() {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, 30);
+        queue.clear();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.getDiskUsage());
+        Assert.assertEquals(0, folder.getRoot().listFiles()[0].listFiles().length);
+    }
+
+    @Test
+    public void remove_SpilledObject_ShouldRewriteSegmentsWithoutIt() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, 30);
+        long diskUsage = queue.getDiskUsage();
+        Assert.assertTrue(queue.remove("Test string 0"));
+        Assert.assertTrue(queue.remove("Test string 25"));
+        Assert.assertFalse(queue.remove("Test string 25"));
+        Assert.assertEquals(28, queue.size());
+        Assert.assertEquals(19, queue.getSpilledSize());
+        Assert.assertTrue(queue.getDiskUsage() < diskUsage);
+        for(int i = 1; i < 30; i++) {
+            if(i != 25) {
+                Assert.assertEquals("Test string " + i, queue.take());
+            }
+        }
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, folder.getRoot().listFiles()[0].listFiles().length);
+    }
+
+    @Test
+    public void removeAll_WithSpilledElements_ShouldRemoveThemFromMemoryAndDisk() throws Exception {
+        SpillingBlockingQueue<String> queue = newQueue(1024 * 1024);
+        fillQueue(queue, 30);
+        for(int i = 0; i < 5; i++) {
+            Assert.assertEquals("Test string " + i, queue.take());
+        }
+        Assert.assertTrue(queue.removeAll(List.of("Test string 3", "Test string 12", "Test string 27")));
+        Assert.assertTrue(queue.retainAll(List.of("Test string 5", "Test string 20", "Test string 29")));
+        Assert.assertFalse(queue.retainAll(List.of("Test string 5", "Test string 20", "Test string 29")));
+        Assert.assertEquals("Test string 5", queue.take());
+        Assert.assertEquals("Test string 20", queue.take());
+        Assert.assertEquals("Test string 29", queue.take());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void offer_TwoQueuesInSameDirectory_ShouldNotOverwriteEachOtherOrLeftoverFiles() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("spill");
+        Files.createDirectories(directory);
+        Path leftover = directory.resolve("segment-00000000.spill");
+        Files.write(leftover, new byte[] {1, 2, 3});
+        SpillingBlockingQueue<String> first = newQueue(1024 * 1024);
+        SpillingBlockingQueue<String> second = newQueue(1024 * 1024);
+        for(int i = 0; i < 20; i++) {
+            first.add("First " + i);
+            second.add("Second " + i);
+        }
+        for(int i = 0; i < 20; i++) {
+            Assert.assertEquals("First " + i, first.take());
+            Assert.assertEquals("Second " + i, second.take());
+        }
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(leftover));
+    }
+
+    private SpillingBlockingQueue<String> newQueue(long maxDiskBytes) {
+        return new SpillingBlockingQueue<>(limit, folder.getRoot().toPath().resolve("spill"),
+                maxDiskBytes, stringSerializer(), 128, 4);
+    }
+
+    private void fillQueue(SpillingBlockingQueue<String> queue, int count) {
+        for(int i = 0; i < count; i++) {
+            queue.add("Test string" + " " + i);
+        }
+    }
+
+    private Serializer<String> stringSerializer() {
+        return new Serializer<String>() {
+            public byte[] serialize(String item) {
+                return item.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}